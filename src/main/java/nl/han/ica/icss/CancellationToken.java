@@ -0,0 +1,65 @@
+package nl.han.ica.icss;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tells a compile to stop early, because it was cancelled or because its deadline passed.
+ *
+ * Compiling checks the token cooperatively: the parser before every statement and every part of a style rule
+ * (see CancellableErrorStrategy), building the AST at every few nodes, and the checker and the passes before
+ * every style rule. A token can be cancelled from any thread.
+ */
+public final class CancellationToken implements BooleanSupplier {
+
+    private volatile boolean cancelled;
+    // In System.nanoTime, only when there is a timeout
+    private final long deadline;
+    private final long timeoutNanos;
+
+    // A token without a deadline, it is only cancelled by cancel
+    public CancellationToken() {
+        this.deadline = 0;
+        this.timeoutNanos = -1;
+    }
+
+    private CancellationToken(long timeoutNanos) {
+        this.deadline = System.nanoTime() + timeoutNanos;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Creates a token that times out a while from now
+     * @param timeout the time the compile may take
+     * @return the token
+     */
+    public static CancellationToken withTimeout(Duration timeout) {
+        return new CancellationToken(timeout.toNanos());
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Whether the compile should stop, because it was cancelled or timed out
+    public boolean isCancelled() {
+        return cancelled || isTimedOut();
+    }
+
+    public boolean isTimedOut() {
+        return timeoutNanos >= 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+        return isCancelled();
+    }
+
+    // The error to report for a compile that stopped because of this token
+    public String getMessage() {
+        if (cancelled) {
+            return "Cancelled: the compile was cancelled";
+        }
+        return "Timeout: the compile did not finish within " + timeoutNanos / 1_000_000 + " ms";
+    }
+}
@@ -0,0 +1,301 @@
+package nl.han.ica.icss;
+
+import nl.han.ica.icss.symbols.Prelude;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiles stylesheets through a Pipeline and keeps the results, for callers that compile the same sources
+ * over and over, such as a build worker or a server. It is safe to share between threads.
+ *
+ * Results are kept by the SHA-256 hash of the source, so the sources themselves are not kept. The cache holds
+ * the least recently used results up to a total weight, the characters of the CSS and the errors of every
+ * result. A result that is heavier than the whole cache is returned but not kept.
+ *
+ * When several threads ask for the same source that is not in the cache, one of them compiles it and the others
+ * wait for its result instead of compiling it as well. The hits, misses and such coalesced requests are counted.
+ *
+ * A request can have a CancellationToken, for instance with a deadline. A compile that stops early belongs to its
+ * own request only: it is not kept, and the requests that waited for it compile the source themselves.
+ *
+ * The weight limits the results only. The names of the compiled sources stay interned after their results are
+ * evicted or cleared (see Symbols), so a service that compiles ever new names grows by those names.
+ */
+public class CompileService {
+
+    // What a result costs besides its text: the key, the entry and the result object
+    private static final int ENTRY_WEIGHT = 128;
+    // How often a request that waits for another request checks its own token
+    private static final long WAIT_INTERVAL_MILLIS = 10;
+
+    /**
+     * The outcome of a compile
+     */
+    public static final class Result {
+        private final String css;
+        private final List<String> errors;
+        private final boolean cancelled;
+
+        Result(String css, List<String> errors, boolean cancelled) {
+            this.css = css;
+            this.errors = errors;
+            this.cancelled = cancelled;
+        }
+
+        // The generated CSS, or null when there are errors
+        public String getCss() {
+            return css;
+        }
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        // Whether the compile stopped early, the errors then tell why
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private long weight() {
+            long weight = ENTRY_WEIGHT + (css != null ? css.length() : 0);
+            for (String error : errors) {
+                weight += error.length();
+            }
+            return weight;
+        }
+    }
+
+    // A source hash, with equality by content
+    private static final class Key {
+        private final byte[] hash;
+        private final int hashCode;
+
+        Key(byte[] hash) {
+            this.hash = hash;
+            this.hashCode = Arrays.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(hash, ((Key) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private final Prelude prelude;
+    private final long maximumWeight;
+
+    // In access order, guarded by itself
+    private final LinkedHashMap<Key, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    // The compiles that are running, for the requests that come in meanwhile
+    private final ConcurrentHashMap<Key, CompletableFuture<Result>> running = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a service for stylesheets without a prelude
+     * @param maximumWeight the number of characters of CSS and errors to keep at most
+     */
+    public CompileService(long maximumWeight) {
+        this(Prelude.EMPTY, maximumWeight);
+    }
+
+    /**
+     * Creates a service for stylesheets that can use the variables of a prelude, see Pipeline.compilePrelude
+     * @param prelude the variables that are in scope for every stylesheet
+     * @param maximumWeight the number of characters of CSS and errors to keep at most
+     */
+    public CompileService(Prelude prelude, long maximumWeight) {
+        this.prelude = prelude;
+        this.maximumWeight = maximumWeight;
+    }
+
+    // Requests that were answered from the cache
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    // Requests that compiled their source
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // Requests that waited for a compile of the same source by another request
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    // Results that were dropped to make room for newer ones
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    // The total weight of the results in the cache
+    public long getWeight() {
+        synchronized (results) {
+            return weight;
+        }
+    }
+
+    /**
+     * Compiles a stylesheet, or takes the result of an earlier compile of the same source
+     * @param source the ICSS source
+     * @return the result, which is shared by every request for the source
+     */
+    public Result compile(String source) {
+        return compile(source, new CancellationToken());
+    }
+
+    /**
+     * Compiles a stylesheet unless the token stops it, or takes the result of an earlier compile of the same source
+     * @param source the ICSS source
+     * @param cancellation stops the compile, and the wait for a compile of the same source by another request
+     * @return the result, which is shared by every request for the source unless it was cancelled
+     */
+    public Result compile(String source, CancellationToken cancellation) {
+        Key key = new Key(hash(source));
+        while (true) {
+            Result result = cached(key);
+            if (result != null) {
+                hits.increment();
+                return result;
+            }
+
+            CompletableFuture<Result> future = new CompletableFuture<>();
+            CompletableFuture<Result> other = running.putIfAbsent(key, future);
+            if (other != null) {
+                result = await(other, cancellation);
+                if (result == null) {
+                    return cancelled(cancellation);
+                } else if (!result.cancelled) {
+                    coalesced.increment();
+                    return result;
+                }
+                // The other request was stopped by its own token, try again
+                continue;
+            }
+            try {
+                // Another request may have finished the same source since the lookup above
+                result = cached(key);
+                if (result != null) {
+                    hits.increment();
+                } else {
+                    misses.increment();
+                    result = compileNow(source, cancellation);
+                    if (!result.cancelled) {
+                        store(key, result);
+                    }
+                }
+                future.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                running.remove(key, future);
+            }
+        }
+    }
+
+    // Drops every result
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+            weight = 0;
+        }
+    }
+
+    private Result compileNow(String source, CancellationToken cancellation) {
+        Pipeline pipeline = new Pipeline(prelude);
+        pipeline.setCancellation(cancellation);
+        pipeline.parseString(source);
+        String css = pipeline.compile();
+        return new Result(css, List.copyOf(pipeline.getErrors()), pipeline.isCancelled());
+    }
+
+    private static Result cancelled(CancellationToken cancellation) {
+        return new Result(null, List.of(cancellation.getMessage()), true);
+    }
+
+    private Result cached(Key key) {
+        synchronized (results) {
+            return results.get(key);
+        }
+    }
+
+    private void store(Key key, Result result) {
+        long resultWeight = result.weight();
+        if (resultWeight > maximumWeight) {
+            return;
+        }
+        synchronized (results) {
+            Result replaced = results.put(key, result);
+            if (replaced != null) {
+                weight -= replaced.weight();
+            }
+            weight += resultWeight;
+            Iterator<Map.Entry<Key, Result>> eldest = results.entrySet().iterator();
+            while (weight > maximumWeight) {
+                weight -= eldest.next().getValue().weight();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    // The result of the other request, or null when the token stopped the wait first
+    private static Result await(CompletableFuture<Result> future, CancellationToken cancellation) {
+        try {
+            while (true) {
+                if (cancellation.isCancelled()) {
+                    return null;
+                }
+                try {
+                    return future.get(WAIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Check the token again
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a compile", e);
+        } catch (ExecutionException e) {
+            // The request that compiled got the same exception, so the stack trace is the one of that thread
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static byte[] hash(String source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package nl.han.ica.icss;
+
+/**
+ * An error together with the part of the source it is about, for tools that point at the source
+ * such as an editor.
+ */
+public final class Diagnostic {
+
+    public final String message;
+    // Offsets in the source, end exclusive
+    public final int start;
+    public final int end;
+
+    public Diagnostic(String message, int start, int end) {
+        this.message = message;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end + ": " + message;
+    }
+}
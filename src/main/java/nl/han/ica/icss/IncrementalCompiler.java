@@ -0,0 +1,278 @@
+package nl.han.ica.icss;
+
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.checker.Checker;
+import nl.han.ica.icss.checker.SemanticError;
+import nl.han.ica.icss.events.CompileEvent;
+import nl.han.ica.icss.generator.Generator;
+import nl.han.ica.icss.parser.FragmentParser;
+import nl.han.ica.icss.parser.TopLevelScanner;
+import nl.han.ica.icss.transforms.EvalExpressions;
+import nl.han.ica.icss.transforms.RemoveIf;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Compiles successive versions of a stylesheet, recompiling only the style rules that changed.
+ *
+ * The source is split into its top-level statements (see TopLevelScanner). The text of a statement is its
+ * fingerprint. A style rule depends on nothing but its own text and the values of the global variables it
+ * refers to, so its CSS is kept with the global values it was compiled with and reused as long as both are the
+ * same. The global variables themselves are cheap and are evaluated for every version, which also catches a
+ * changed global that only changes the value of another one. The output is the CSS of the rules spliced
+ * together in source order.
+ *
+ * Source that doesn't split into statements, and stylesheets whose globals have errors, are compiled as a whole
+ * by the Pipeline. An instance keeps the results of the previous version and is not safe to share between threads.
+ */
+public class IncrementalCompiler {
+
+    private static final class CompiledRule {
+        // The global variables the rule refers to and their values when it was compiled
+        final int[] dependencies;
+        final Literal[] dependencyValues;
+        // The generated CSS, or null when the rule has errors
+        final String css;
+        // The errors, with offsets in the text of the rule
+        final List<Diagnostic> errors;
+
+        CompiledRule(int[] dependencies, Literal[] dependencyValues, String css, List<Diagnostic> errors) {
+            this.dependencies = dependencies;
+            this.dependencyValues = dependencyValues;
+            this.css = css;
+            this.errors = errors;
+        }
+    }
+
+    // Results of the previous version by source text, entries that are not used by a version are dropped
+    private HashMap<String, CompiledRule> compiledRules = new HashMap<>();
+    private HashMap<String, VariableAssignment> parsedGlobals = new HashMap<>();
+
+    private final List<String> errors = new ArrayList<>();
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private boolean cancelled;
+    private int recompiledCount;
+    private int reusedCount;
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    // The errors of the last compile with the statement (or for syntax errors the input) they are about
+    public List<Diagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    // Whether the last compile was cancelled before it finished
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Number of style rules that were compiled and reused by the last call to compile
+    public int getRecompiledCount() {
+        return recompiledCount;
+    }
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Compiles a version of the stylesheet
+     * @param source the ICSS source
+     * @return the generated CSS, or null when there are errors
+     */
+    public String compile(String source) {
+        return compile(source, () -> false);
+    }
+
+    /**
+     * Compiles a version of the stylesheet unless it is cancelled, which is checked before every style rule
+     * that has to be compiled. The rules that were compiled before the cancellation are kept for the next version.
+     * @param source the ICSS source
+     * @param cancelled tells whether the compile is no longer needed, for instance because a newer version came in
+     * @return the generated CSS, or null when there are errors or the compile was cancelled
+     */
+    public String compile(String source, BooleanSupplier cancelled) {
+        CompileEvent event = new CompileEvent();
+        event.begin();
+        String css = compileVersion(source, cancelled);
+        event.end("IncrementalCompiler", source.length(), css, () -> 0, errors.size());
+        return css;
+    }
+
+    private String compileVersion(String source, BooleanSupplier cancelled) {
+        errors.clear();
+        diagnostics.clear();
+        this.cancelled = false;
+        recompiledCount = reusedCount = 0;
+        List<TopLevelScanner.Segment> segments = TopLevelScanner.scan(source);
+        if (segments == null) {
+            return compileWhole(source);
+        }
+
+        // Parse the globals, reusing the assignments that didn't change
+        HashMap<String, VariableAssignment> globals = new HashMap<>();
+        ArrayList<ASTNode> globalBody = new ArrayList<>();
+        for (TopLevelScanner.Segment segment : segments) {
+            if (segment.stylerule) {
+                break;
+            }
+            String text = segment.text(source);
+            VariableAssignment assignment = parsedGlobals.get(text);
+            if (assignment == null) {
+                FragmentParser parser = new FragmentParser();
+                assignment = parser.parseVariableAssignment(text);
+                if (assignment == null) {
+                    return compileWhole(source);
+                }
+            }
+            globals.put(text, assignment);
+            globalBody.add(assignment);
+        }
+        Stylesheet globalSheet = new Stylesheet(globalBody);
+
+        // The errors of the globals are reported by compiling the whole source, which leaves the parsed globals as they are
+        Checker checker = new Checker();
+        if (!checker.begin(globalSheet)) {
+            return compileWhole(source);
+        }
+        EvalExpressions evaluator = new EvalExpressions();
+        if (!evaluator.begin(globalSheet)) {
+            return compileWhole(source);
+        }
+        parsedGlobals = globals;
+
+        HashMap<String, CompiledRule> rules = new HashMap<>();
+        ArrayList<String> parts = new ArrayList<>();
+        int length = 0;
+        for (TopLevelScanner.Segment segment : segments) {
+            if (!segment.stylerule) {
+                continue;
+            }
+            String text = segment.text(source);
+            CompiledRule rule = rules.get(text);
+            if (rule == null) {
+                rule = compiledRules.get(text);
+                if (rule != null && isUpToDate(rule, evaluator)) {
+                    reusedCount++;
+                } else if (cancelled.getAsBoolean()) {
+                    this.cancelled = true;
+                    checker.end(globalSheet);
+                    evaluator.end(globalSheet);
+                    compiledRules.putAll(rules);
+                    errors.clear();
+                    diagnostics.clear();
+                    return null;
+                } else {
+                    rule = compileRule(text, checker, evaluator);
+                    recompiledCount++;
+                }
+                rules.put(text, rule);
+            } else {
+                reusedCount++;
+            }
+            if (rule.css != null) {
+                parts.add(rule.css);
+                length += rule.css.length();
+            }
+            for (Diagnostic error : rule.errors) {
+                errors.add(error.message);
+                diagnostics.add(new Diagnostic(error.message, segment.start + error.start, segment.start + error.end));
+            }
+        }
+        checker.end(globalSheet);
+        evaluator.end(globalSheet);
+        compiledRules = rules;
+        if (!errors.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder output = new StringBuilder(length);
+        for (String part : parts) {
+            output.append(part);
+        }
+        return output.toString();
+    }
+
+    private boolean isUpToDate(CompiledRule rule, EvalExpressions evaluator) {
+        for (int i = 0; i < rule.dependencies.length; i++) {
+            if (!Objects.equals(evaluator.getValue(rule.dependencies[i]), rule.dependencyValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CompiledRule compileRule(String text, Checker checker, EvalExpressions evaluator) {
+        FragmentParser parser = new FragmentParser();
+        Stylerule stylerule = parser.parseStylerule(text);
+        if (stylerule == null) {
+            ArrayList<Diagnostic> syntaxErrors = new ArrayList<>();
+            for (int i = 0; i < parser.getErrors().size(); i++) {
+                int[] range = parser.getErrorRange(i);
+                syntaxErrors.add(new Diagnostic(parser.getErrors().get(i), range[0], range[1]));
+            }
+            return new CompiledRule(new int[0], new Literal[0], null, syntaxErrors);
+        }
+        int[] dependencies = referencedVariables(stylerule);
+        Literal[] dependencyValues = new Literal[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencyValues[i] = evaluator.getValue(dependencies[i]);
+        }
+
+        Stylerule evaluated = null;
+        Stylerule failed;
+        if (!checker.check(stylerule)) {
+            failed = checker.getFailed();
+        } else {
+            evaluated = evaluator.apply(stylerule);
+            failed = evaluator.getFailed();
+        }
+        if (evaluated == null) {
+            ArrayList<Diagnostic> ruleErrors = new ArrayList<>();
+            for (SemanticError e : new AST(new Stylesheet(new ArrayList<>(List.of(failed)))).getErrors()) {
+                ruleErrors.add(new Diagnostic(e.toString(), 0, text.length()));
+            }
+            return new CompiledRule(dependencies, dependencyValues, null, ruleErrors);
+        }
+        StringBuilder css = new StringBuilder();
+        new Generator().generate(new RemoveIf().apply(evaluated), css);
+        return new CompiledRule(dependencies, dependencyValues, css.toString(), List.of());
+    }
+
+    // The symbols of every variable the style rule refers to, whether or not it is global
+    private static int[] referencedVariables(Stylerule stylerule) {
+        BitSet symbols = new BitSet();
+        new ASTWalker().walk(stylerule, new ASTVisitor<>() {
+            @Override
+            public Boolean visitNode(ASTNode node) {
+                return true;
+            }
+
+            @Override
+            public Boolean visitVariableReference(VariableReference reference) {
+                symbols.set(reference.symbol);
+                return false;
+            }
+        }, null);
+        return symbols.stream().toArray();
+    }
+
+    private String compileWhole(String source) {
+        recompiledCount = reusedCount = 0;
+        Pipeline pipeline = new Pipeline();
+        pipeline.parseString(source);
+        String css = pipeline.compile();
+        errors.addAll(pipeline.getErrors());
+        // The whole source is compiled at once, so the errors are not tied to a statement
+        for (String error : pipeline.getErrors()) {
+            diagnostics.add(new Diagnostic(error, 0, 0));
+        }
+        return css;
+    }
+}
@@ -1,40 +1,129 @@
 package nl.han.ica.icss;
 
 import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.Literal;
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+import nl.han.ica.icss.ast.VariableAssignment;
+import nl.han.ica.icss.ast.types.ExpressionType;
 import nl.han.ica.icss.checker.Checker;
+import nl.han.ica.icss.checker.PropertySchema;
 import nl.han.ica.icss.checker.SemanticError;
+import nl.han.ica.icss.events.CompileEvent;
+import nl.han.ica.icss.events.PhaseEvent;
 import nl.han.ica.icss.generator.Generator;
 import nl.han.ica.icss.parser.ASTListener;
+import nl.han.ica.icss.parser.CancellableErrorStrategy;
+import nl.han.ica.icss.parser.FragmentParser;
 import nl.han.ica.icss.parser.ICSSLexer;
 import nl.han.ica.icss.parser.ICSSParser;
+import nl.han.ica.icss.parser.ParallelParser;
+import nl.han.ica.icss.parser.TopLevelScanner;
+import nl.han.ica.icss.passes.*;
+import nl.han.ica.icss.symbols.Prelude;
 import nl.han.ica.icss.transforms.EvalExpressions;
-import nl.han.ica.icss.transforms.RemoveIf;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.atn.ATNConfigSet;
 import org.antlr.v4.runtime.dfa.DFA;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.IterativeParseTreeWalker;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 public class Pipeline implements ANTLRErrorListener {
 
+    // Sources of at least this many characters are parsed on several threads, see ParallelParser
+    private static final int PARALLEL_PARSE_THRESHOLD = 1 << 18;
+
+    // The parsed AST, the AST with the errors of check and the AST after transforming, which share every node
+    // that didn't change
     private AST ast;
+    private AST checkedAST;
+    private AST transformedAST;
     private boolean parsed = false;
     private boolean checked = false;
     private boolean transformed = false;
     private List<String> errors;
 
+    // transform runs the transforming passes, compile runs everything from checking to generating in one traversal
+    private final PassManager transformPasses;
+    private final PassManager compilePasses;
+    private final GeneratePass generatePass;
+    private PassManager lastRun;
+    private final Prelude prelude;
+
+    // Stops the phases early, the last compile that stopped keeps the CSS of the style rules it finished
+    private CancellationToken cancellation = new CancellationToken();
+    private boolean cancelled;
+    private String partialOutput;
+
+    // Time, allocated bytes and peak heap of every phase since the last parse, memory only when profiling
+    private final LinkedHashMap<String, Long> phaseTimings = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> phaseAllocations = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> phasePeakHeap = new LinkedHashMap<>();
+    private boolean profiling;
+    private long phaseStartNanos;
+    private long phaseStartBytes;
+
+    // Flight recorder events of the compile since the last parse and of the phase that is running
+    private CompileEvent compileEvent;
+    private PhaseEvent phaseEvent;
+    private int inputSize;
+
     public Pipeline() {
+        this(Prelude.EMPTY);
+    }
+
+    /**
+     * Creates a pipeline for stylesheets that can use the variables of a prelude, see compilePrelude
+     * @param prelude the variables that are in scope for every stylesheet
+     */
+    public Pipeline(Prelude prelude) {
+        this.prelude = prelude;
         errors = new ArrayList<>();
+        generatePass = new GeneratePass();
+        transformPasses = new PassManager()
+                .add(new EvaluatePass(new EvalExpressions(prelude)))
+                .add(new RemoveIfPass());
+        compilePasses = new PassManager()
+                .add(new CheckPass(new Checker(PropertySchema.getDefault(), prelude)))
+                .add(new EvaluatePass(new EvalExpressions(prelude)))
+                .add(new RemoveIfPass())
+                .add(generatePass);
+    }
+
+    /**
+     * Registers an extra pass for transform and compile. It runs where its reads and writes place it.
+     * @param pass the pass to add
+     */
+    public void addPass(Pass pass) {
+        transformPasses.add(pass);
+        compilePasses.add(pass);
     }
 
+    // The AST of the last phase that ran
     public AST getAST() {
+        if (transformedAST != null) {
+            return transformedAST;
+        }
+        return checkedAST != null ? checkedAST : ast;
+    }
+    public AST getParsedAST() {
         return ast;
     }
+    // The AST of the last check, with its errors, null when check didn't run since the last parse
+    public AST getCheckedAST() {
+        return checkedAST;
+    }
+    public AST getTransformedAST() {
+        return transformedAST;
+    }
     public List<String> getErrors() {
         return errors;
     }
@@ -48,30 +137,100 @@ public class Pipeline implements ANTLRErrorListener {
         return transformed;
     }
 
-    public void parseString(String input) {
+    // Whether a phase since the last parse stopped early because of the cancellation token
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // The CSS of the style rules that were compiled before the last compile stopped early, null when it didn't
+    public String getPartialOutput() {
+        return partialOutput;
+    }
+
+    /**
+     * Makes the phases from now on stop early once the token is cancelled or its deadline passes. A phase that
+     * stops reports the reason as an error, see isCancelled and getPartialOutput. Parsing stops within the
+     * stylesheet, also when a large source is parsed on several threads, and check, transform and compile before the
+     * next style rule. Lexing runs to the end once it started, and generate always does.
+     * @param cancellation the token to observe
+     */
+    public void setCancellation(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        transformPasses.setCancellation(cancellation);
+        compilePasses.setCancellation(cancellation);
+    }
+
+    /**
+     * Measures the bytes every phase allocates besides its time, see getPhaseAllocations
+     * @param profiling whether to measure allocations
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling && ThreadAllocation.isSupported();
+        transformPasses.setMeasureAllocations(profiling);
+        compilePasses.setMeasureAllocations(profiling);
+    }
 
-        //Lex (with Antlr's generated lexer)
-        CharStream inputStream = CharStreams.fromString(input);
-        ICSSLexer lexer = new ICSSLexer(inputStream);
-        lexer.removeErrorListeners();
-        lexer.addErrorListener(this);
+    // Nanoseconds spent in every phase since the last parse, in the order they ran
+    public LinkedHashMap<String, Long> getPhaseTimings() {
+        return new LinkedHashMap<>(phaseTimings);
+    }
+
+    // Bytes allocated by every phase since the last parse, empty unless profiling
+    public LinkedHashMap<String, Long> getPhaseAllocations() {
+        return new LinkedHashMap<>(phaseAllocations);
+    }
+
+    // Peak heap usage during every phase since the last parse, empty unless profiling, see HeapPeak
+    public LinkedHashMap<String, Long> getPhasePeakHeap() {
+        return new LinkedHashMap<>(phasePeakHeap);
+    }
+
+    public void parseString(String input) {
+        beginCompileEvent(input.length());
+        phaseTimings.clear();
+        phaseAllocations.clear();
+        phasePeakHeap.clear();
+        cancelled = false;
+        partialOutput = null;
         errors.clear();
         try {
+            AST parallelAST = input.length() >= PARALLEL_PARSE_THRESHOLD ? parseParallel(input) : null;
+            if (parallelAST != null) {
+                this.ast = parallelAST;
+                parsed = true;
+                checked = transformed = false;
+                checkedAST = transformedAST = null;
+                return;
+            }
+
+            //Lex (with Antlr's generated lexer)
+            CharStream inputStream = CharStreams.fromString(input);
+            ICSSLexer lexer = new ICSSLexer(inputStream);
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(this);
+            startPhase();
             CommonTokenStream tokens = new CommonTokenStream(lexer);
+            tokens.fill();
+            endPhase("lex", null);
 
             //Parse (with Antlr's generated parser)
+            startPhase();
             ICSSParser parser = new ICSSParser(tokens);
             parser.removeErrorListeners();
             parser.addErrorListener(this);
+            parser.setErrorHandler(new CancellableErrorStrategy(cancellation));
 
             ParseTree parseTree = parser.stylesheet();
+            endPhase("parse", null);
 
             //Extract AST from the Antlr parse tree
+            startPhase();
             ASTListener listener = new ASTListener();
-            ParseTreeWalker walker = new ParseTreeWalker();
+            listener.setCancellation(cancellation);
+            ParseTreeWalker walker = new IterativeParseTreeWalker();
             walker.walk(listener, parseTree);
-
             this.ast = listener.getAST();
+            endPhase("build AST", ast);
 
         } catch (RecognitionException e) {
             this.ast = new AST();
@@ -79,27 +238,100 @@ public class Pipeline implements ANTLRErrorListener {
 
         } catch (ParseCancellationException e) {
             this.ast = new AST();
-            errors.add("Syntax error");
+            if (cancellation.isCancelled()) {
+                reportCancellation();
+            } else {
+                errors.add("Syntax error");
+            }
+        } catch (StackOverflowError e) {
+            // Antlr's parser is recursive descent, so nesting (of if clauses) is bounded by the call stack.
+            // Everything after parsing walks the AST iteratively.
+            this.ast = new AST();
+            errors.add("Syntax error: input is nested too deeply");
         }
         parsed = errors.isEmpty();
         checked = transformed = false;
+        checkedAST = transformedAST = null;
     }
+
+    // Takes the same phases as parsing on one thread, returns null when the source has to be parsed on one thread
+    private AST parseParallel(String input) {
+        ParallelParser parallelParser = new ParallelParser();
+        parallelParser.setCancellation(cancellation);
+        startPhase();
+        ParallelParser.Parse parse = parallelParser.lex(input);
+        endPhase("lex", null);
+        if (parse == null) {
+            return null;
+        }
+        startPhase();
+        boolean parsed = parse.parse();
+        endPhase("parse", null);
+        if (!parsed) {
+            return null;
+        }
+        startPhase();
+        AST parallelAST = parse.buildAST();
+        endPhase("build AST", parallelAST);
+        return parallelAST;
+    }
+
+    /**
+     * Starts from an AST that was not parsed from source, such as one loaded by BinaryASTReader
+     * @param ast the AST to check, transform or compile next
+     */
+    public void load(AST ast) {
+        beginCompileEvent(0);
+        errors.clear();
+        cancelled = false;
+        partialOutput = null;
+        this.ast = ast;
+        parsed = true;
+        checked = transformed = false;
+        checkedAST = transformedAST = null;
+    }
+
     public boolean check() {
             if(ast == null)
                 return false;
+            if (cancellation.isCancelled()) {
+                reportCancellation();
+                return false;
+            }
 
-           (new Checker()).check(this.ast);
+           // One style rule at a time, so a cancellation stops the check at the next rule
+           startPhase();
+           // The parsed AST is left as it is, the style rules with errors are replaced by their checked copies
+           Checker checker = new Checker(PropertySchema.getDefault(), prelude);
+           checker.begin(ast.root);
+           ArrayList<ASTNode> body = new ArrayList<>(ast.root.body.size());
+           boolean changed = false;
+           for (ASTNode child : ast.root.body) {
+               if (child instanceof Stylerule && !cancelled) {
+                   if (cancellation.isCancelled()) {
+                       reportCancellation();
+                   } else if (!checker.check((Stylerule) child)) {
+                       child = checker.getFailed();
+                       changed = true;
+                   }
+               }
+               body.add(child);
+           }
+           Stylesheet stylesheet = checker.end(changed ? ast.root.withBody(body) : ast.root);
+           checkedAST = stylesheet == ast.root ? ast : new AST(stylesheet);
+           endPhase("check", checkedAST);
 
-            ArrayList<SemanticError> errors = this.ast.getErrors();
+            ArrayList<SemanticError> errors = checkedAST.getErrors();
             if (!errors.isEmpty()) {
                 for (SemanticError e : errors) {
                     this.errors.add(e.toString());
                 }
             }
 
-            checked = errors.isEmpty();
+            checked = errors.isEmpty() && !cancelled;
             transformed = false;
-            return errors.isEmpty();
+            transformedAST = null;
+            return checked;
     }
 
     public void clearErrors(){
@@ -110,14 +342,200 @@ public class Pipeline implements ANTLRErrorListener {
         if(ast == null)
             return;
 
-        (new EvalExpressions()).apply(ast);
-        (new RemoveIf()).apply(ast);
+        PhaseEvent[] passEvents = startPassPhases(transformPasses);
+        transformedAST = transformPasses.run(checkedAST != null ? checkedAST : ast);
+        lastRun = transformPasses;
+        addPassPhases(transformPasses, passEvents);
+        if (transformPasses.isCancelled()) {
+            reportCancellation();
+        }
 
+        // Evaluating reports values that are out of range. A checked AST has no other errors to report twice.
+        if (checked) {
+            for (SemanticError e : transformedAST.getErrors()) {
+                errors.add(e.toString());
+            }
+        }
         transformed = errors.isEmpty();
     }
+    /**
+     * Checks, transforms and generates the parsed stylesheet in a single traversal
+     * @return the generated CSS, or null when there are errors
+     */
+    public String compile() {
+        if (ast == null || !parsed) {
+            commitCompileEvent(null);
+            return null;
+        }
+        partialOutput = null;
+        PhaseEvent[] passEvents = startPassPhases(compilePasses);
+        transformedAST = compilePasses.run(ast);
+        lastRun = compilePasses;
+        addPassPhases(compilePasses, passEvents);
+        boolean success = compilePasses.isSuccessful();
+        if (!success) {
+            for (SemanticError e : transformedAST.getErrors()) {
+                errors.add(e.toString());
+            }
+        }
+        if (compilePasses.isCancelled()) {
+            reportCancellation();
+            // When the run stopped before generating, the generate pass still has the output of an earlier run
+            partialOutput = compilePasses.hasBegun(generatePass) ? generatePass.getOutput() : "";
+        }
+        checked = transformed = success;
+        String css = success ? generatePass.getOutput() : null;
+        commitCompileEvent(css);
+        return css;
+    }
+
+    /**
+     * Compiles the global variables that many stylesheets share, so every compile with the result only pays for
+     * its own statements
+     * @param source variable assignments, nothing else
+     * @return the prelude, which is immutable and can be shared between threads
+     * @throws IllegalArgumentException when the source has anything but valid variable assignments
+     */
+    public static Prelude compilePrelude(String source) {
+        List<TopLevelScanner.Segment> segments = TopLevelScanner.scanAssignments(source);
+        if (segments == null) {
+            throw new IllegalArgumentException("A prelude can only have variable assignments");
+        }
+        ArrayList<ASTNode> body = new ArrayList<>(segments.size());
+        for (TopLevelScanner.Segment segment : segments) {
+            FragmentParser parser = new FragmentParser(segment.line, segment.column);
+            VariableAssignment assignment = parser.parseVariableAssignment(segment.text(source));
+            if (assignment == null) {
+                throw new IllegalArgumentException("Error in prelude: " + parser.getErrors());
+            }
+            body.add(assignment);
+        }
+        Stylesheet globals = new Stylesheet(body);
+        Checker checker = new Checker();
+        EvalExpressions evaluator = new EvalExpressions();
+        if (!checker.begin(globals)) {
+            throw new IllegalArgumentException("Error in prelude: " + new AST(checker.end(globals)).getErrors());
+        }
+        if (!evaluator.begin(globals)) {
+            throw new IllegalArgumentException("Error in prelude: " + new AST(evaluator.end(globals)).getErrors());
+        }
+        int[] symbols = body.stream().mapToInt(node -> ((VariableAssignment) node).name.symbol).distinct().toArray();
+        ExpressionType[] types = new ExpressionType[symbols.length];
+        Literal[] values = new Literal[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            types[i] = checker.getType(symbols[i]);
+            values[i] = evaluator.getValue(symbols[i]);
+        }
+        checker.end(globals);
+        evaluator.end(globals);
+        return new Prelude(symbols, types, values);
+    }
+
+    // Time spent in every pass of the last transform or compile
+    public String getTimingReport() {
+        return lastRun != null ? lastRun.getTimingReport() : "";
+    }
+
     public String generate() {
+        startPhase();
         Generator generator = new Generator();
-        return generator.generate(ast);
+        String css = generator.generate(getAST());
+        endPhase("generate", getAST());
+        commitCompileEvent(css);
+        return css;
+    }
+
+    private void reportCancellation() {
+        if (!cancelled) {
+            cancelled = true;
+            errors.add(cancellation.getMessage());
+        }
+    }
+
+    private void startPhase() {
+        if (profiling) {
+            phaseStartBytes = ThreadAllocation.allocatedBytes();
+            HeapPeak.reset();
+        }
+        phaseEvent = new PhaseEvent();
+        phaseEvent.begin();
+        phaseStartNanos = System.nanoTime();
+    }
+
+    // result is the AST the phase built, if any
+    private void endPhase(String name, AST result) {
+        long nanos = System.nanoTime() - phaseStartNanos;
+        phaseTimings.put(name, nanos);
+        if (profiling) {
+            phaseAllocations.put(name, ThreadAllocation.allocatedBytes() - phaseStartBytes);
+            phasePeakHeap.put(name, HeapPeak.peakBytes());
+        }
+        phaseEvent.end();
+        if (phaseEvent.shouldCommit()) {
+            commitPhaseEvent(phaseEvent, name, nanos, result);
+        }
+    }
+
+    // Returns an event for every pass that spans the whole run, or null when the event is disabled
+    private PhaseEvent[] startPassPhases(PassManager passes) {
+        if (profiling) {
+            HeapPeak.reset();
+        }
+        if (!new PhaseEvent().isEnabled()) {
+            return null;
+        }
+        PhaseEvent[] events = new PhaseEvent[passes.getSchedule().size()];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new PhaseEvent();
+            events[i].begin();
+        }
+        return events;
+    }
+
+    private void addPassPhases(PassManager passes, PhaseEvent[] events) {
+        LinkedHashMap<String, Long> timings = passes.getTimings();
+        phaseTimings.putAll(timings);
+        phaseAllocations.putAll(passes.getAllocations());
+        if (profiling) {
+            // Fused passes run interleaved, they share the peak of their traversal
+            long peak = HeapPeak.peakBytes();
+            for (String name : timings.keySet()) {
+                phasePeakHeap.put(name, peak);
+            }
+        }
+        if (events != null) {
+            for (int i = 0; i < events.length; i++) {
+                events[i].end();
+                if (events[i].shouldCommit()) {
+                    String name = passes.getSchedule().get(i).getName();
+                    commitPhaseEvent(events[i], name, timings.getOrDefault(name, 0L), transformedAST);
+                }
+            }
+        }
+    }
+
+    private void commitPhaseEvent(PhaseEvent event, String name, long nanos, AST result) {
+        event.phase = name;
+        event.inputSize = inputSize;
+        event.time = nanos;
+        event.nodeCount = result != null ? result.countNodes() : 0;
+        event.errorCount = errors.size();
+        event.commit();
+    }
+
+    private void beginCompileEvent(int inputSize) {
+        this.inputSize = inputSize;
+        compileEvent = new CompileEvent();
+        compileEvent.begin();
+    }
+
+    // Ends the compile event at its first output, the compile is over once there is CSS or there are errors
+    private void commitCompileEvent(String css) {
+        if (compileEvent == null) {
+            return;
+        }
+        compileEvent.end("Pipeline", inputSize, css, () -> ast != null ? ast.countNodes() : 0, errors.size());
+        compileEvent = null;
     }
 
     //Catch ANTLR errors
@@ -0,0 +1,232 @@
+package nl.han.ica.icss;
+
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+import nl.han.ica.icss.ast.VariableAssignment;
+import nl.han.ica.icss.checker.SemanticError;
+import nl.han.ica.icss.events.CompileEvent;
+import nl.han.ica.icss.parser.FragmentParser;
+import nl.han.ica.icss.parser.TopLevelScanner;
+import nl.han.ica.icss.passes.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compiles a stylesheet with every phase on its own thread, so the phases of a large stylesheet overlap.
+ *
+ * The parser splits the source into its top-level statements (see TopLevelScanner) and parses one style rule at
+ * a time. Every finished style rule goes into a bounded queue to the check stage, which passes it on to evaluate,
+ * remove-if and generate in turn. A stage runs one Pass and works on the next style rule while the stages after
+ * it work on earlier ones. A full queue blocks the stage that feeds it, so at most a few queues' worth of style
+ * rules are in flight however large the stylesheet is. The calling thread collects the errors in source order.
+ *
+ * Sources that don't split into statements, syntax errors and errors in the globals are left to a
+ * whole-stylesheet Pipeline compile, which reports them as usual. An instance can run one compile at a time.
+ */
+public class PipelinedCompiler {
+
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static final ExecutorService stageThreads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "icss-stage");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // What goes through the queues: the globals first, then the style rules in order, then END
+    private static final class Item {
+        final ASTNode node;
+        // Set when a stage found errors in the style rule, later stages pass it on untouched
+        final boolean failed;
+
+        Item(ASTNode node, boolean failed) {
+            this.node = node;
+            this.failed = failed;
+        }
+    }
+
+    private static final Item END = new Item(null, false);
+
+    private final List<String> errors = new ArrayList<>();
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Compiles a stylesheet
+     * @param source the ICSS source
+     * @return the generated CSS, or null when there are errors
+     */
+    public String compile(String source) {
+        CompileEvent event = new CompileEvent();
+        event.begin();
+        String css = compileStages(source);
+        event.end("PipelinedCompiler", source.length(), css, () -> 0, errors.size());
+        return css;
+    }
+
+    private String compileStages(String source) {
+        errors.clear();
+        List<TopLevelScanner.Segment> segments = TopLevelScanner.scan(source);
+        if (segments == null) {
+            return compileWhole(source);
+        }
+
+        GeneratePass generatePass = new GeneratePass();
+        Pass[] stages = {new CheckPass(), new EvaluatePass(), new RemoveIfPass(), generatePass};
+        AtomicBoolean fallBack = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ArrayList<BlockingQueue<Item>> queues = new ArrayList<>();
+        for (int i = 0; i <= stages.length; i++) {
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        }
+        stageThreads.execute(() -> parse(source, segments, queues.get(0), fallBack, failure));
+        for (int i = 0; i < stages.length; i++) {
+            Pass stage = stages[i];
+            BlockingQueue<Item> in = queues.get(i);
+            BlockingQueue<Item> out = queues.get(i + 1);
+            stageThreads.execute(() -> runStage(stage, in, out, fallBack, failure));
+        }
+
+        // Collect the errors of the style rules that failed a stage
+        BlockingQueue<Item> results = queues.get(stages.length);
+        try {
+            for (Item item = results.take(); item != END; item = results.take()) {
+                if (item.failed) {
+                    for (SemanticError e : new AST(new Stylesheet(new ArrayList<>(List.of(item.node)))).getErrors()) {
+                        errors.add(e.toString());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compiling", e);
+        }
+
+        Throwable thrown = failure.get();
+        if (thrown instanceof RuntimeException) {
+            throw (RuntimeException) thrown;
+        } else if (thrown instanceof Error) {
+            throw (Error) thrown;
+        } else if (thrown != null) {
+            throw new IllegalStateException("Interrupted while compiling", thrown);
+        }
+        if (fallBack.get()) {
+            errors.clear();
+            return compileWhole(source);
+        }
+        return errors.isEmpty() ? generatePass.getOutput() : null;
+    }
+
+    private static void parse(String source, List<TopLevelScanner.Segment> segments, BlockingQueue<Item> out,
+                              AtomicBoolean fallBack, AtomicReference<Throwable> failure) {
+        try {
+            ArrayList<ASTNode> globals = new ArrayList<>();
+            boolean globalsSent = false;
+            for (TopLevelScanner.Segment segment : segments) {
+                if (fallBack.get() || failure.get() != null) {
+                    break;
+                }
+                FragmentParser parser = new FragmentParser(segment.line, segment.column);
+                if (!segment.stylerule) {
+                    VariableAssignment assignment = parser.parseVariableAssignment(segment.text(source));
+                    if (assignment == null) {
+                        fallBack.set(true);
+                    }
+                    globals.add(assignment);
+                    continue;
+                }
+                if (!globalsSent) {
+                    out.put(new Item(new Stylesheet(globals), false));
+                    globalsSent = true;
+                }
+                Stylerule stylerule = parser.parseStylerule(segment.text(source));
+                if (stylerule == null) {
+                    fallBack.set(true);
+                } else {
+                    out.put(new Item(stylerule, false));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (StackOverflowError e) {
+            // Nested too deeply for Antlr, the Pipeline reports it
+            fallBack.set(true);
+        } catch (RuntimeException | Error e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            putEnd(out, failure);
+        }
+    }
+
+    /*
+     * Runs a pass over every item from in and passes the results on to out. Once anything went wrong the stage
+     * stops working but keeps taking items, so the stages before it never block on a full queue.
+     */
+    private static void runStage(Pass stage, BlockingQueue<Item> in, BlockingQueue<Item> out,
+                                 AtomicBoolean fallBack, AtomicReference<Throwable> failure) {
+        try {
+            Stylesheet globals = null;
+            for (Item item = in.take(); item != END; item = in.take()) {
+                if (fallBack.get() || failure.get() != null) {
+                    continue;
+                }
+                try {
+                    if (item.node instanceof Stylesheet) {
+                        globals = (Stylesheet) item.node;
+                        if (!stage.begin(globals)) {
+                            fallBack.set(true);
+                            continue;
+                        }
+                        out.put(item);
+                    } else if (item.failed) {
+                        out.put(item);
+                    } else {
+                        Stylerule stylerule = (Stylerule) item.node;
+                        Stylerule result = stage.apply(stylerule);
+                        out.put(result != null ? new Item(result, false) : new Item(stage.getFailed(stylerule), true));
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+            if (globals != null && !fallBack.get() && failure.get() == null) {
+                stage.end(globals);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            putEnd(out, failure);
+        }
+    }
+
+    private static void putEnd(BlockingQueue<Item> out, AtomicReference<Throwable> failure) {
+        try {
+            out.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private String compileWhole(String source) {
+        Pipeline pipeline = new Pipeline();
+        pipeline.parseString(source);
+        String css = pipeline.compile();
+        errors.addAll(pipeline.getErrors());
+        return css;
+    }
+}
@@ -3,7 +3,6 @@ package nl.han.ica.icss.ast;
 import nl.han.ica.icss.checker.SemanticError;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Objects;
 
 public class AST {
@@ -21,16 +20,31 @@ public class AST {
 	}
     public ArrayList<SemanticError> getErrors() {
 	    ArrayList<SemanticError> errors = new ArrayList<>();
-        collectErrors(errors,root);
+        new ASTWalker().walk(root, new ASTVisitor<>() {
+            @Override
+            public Boolean visitNode(ASTNode node) {
+                if(node.hasError()) {
+                    errors.add(node.getError());
+                }
+                return true;
+            }
+        }, null);
         return errors;
     }
-    private void collectErrors(ArrayList<SemanticError> errors, ASTNode node) {
-	    if(node.hasError()) {
-	        errors.add(node.getError());
-        }
-        for(ASTNode child: node.getChildren()) {
-	        collectErrors(errors,child);
+    // The number of nodes in the tree, a node that is shared counts once for every parent
+    public int countNodes() {
+        if (root == null) {
+            return 0;
         }
+        int[] count = {0};
+        new ASTWalker().walk(root, new ASTVisitor<>() {
+            @Override
+            public Boolean visitNode(ASTNode node) {
+                count[0]++;
+                return true;
+            }
+        }, null);
+        return count[0];
     }
 	@Override
 	public String toString() {
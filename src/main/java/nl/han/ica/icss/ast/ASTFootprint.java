@@ -0,0 +1,208 @@
+package nl.han.ica.icss.ast;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates how much heap an AST takes, by node class.
+ *
+ * The shallow size of a node is the node object itself. Its retained size adds what only the node refers to:
+ * the ArrayLists of a style rule or if clause with their backing arrays, the strings of selectors, names and
+ * literals, and the error. Child nodes are not part of it, every node is counted for its own class, so the
+ * retained sizes of all classes add up to the retained size of the whole AST. A node or string that is shared
+ * (see ExpressionTable and Symbols) is counted once, for the first node that refers to it. Strings are interned
+ * and stay on the heap as long as Symbols does, so dropping an AST frees less than its retained size.
+ *
+ * Sizes follow the layout of a 64-bit HotSpot VM with compressed references: a 12 byte header, 4 byte references
+ * and objects aligned to 8 bytes. Field packing is not modelled, an ArrayList is assumed to be exactly as large
+ * as its size and strings to hold one byte per character, so the estimates are close but not exact.
+ */
+public class ASTFootprint {
+
+    private static final int HEADER_SIZE = 12;
+    private static final int ARRAY_HEADER_SIZE = 16;
+    private static final int REFERENCE_SIZE = 4;
+    private static final int ALIGNMENT = 8;
+
+    // The size of an instance and the reference fields to follow, by class
+    private static final Map<Class<?>, Layout> layouts = new ConcurrentHashMap<>();
+
+    private static final class Layout {
+        final long shallowSize;
+        final Field[] references;
+
+        Layout(long shallowSize, Field[] references) {
+            this.shallowSize = shallowSize;
+            this.references = references;
+        }
+    }
+
+    /**
+     * The footprint of the nodes of one class
+     */
+    public static final class ClassFootprint {
+        private int instances;
+        private long shallowSize;
+        private long retainedSize;
+
+        public int getInstances() {
+            return instances;
+        }
+        public long getShallowSize() {
+            return shallowSize;
+        }
+        public long getRetainedSize() {
+            return retainedSize;
+        }
+    }
+
+    private final TreeMap<String, ClassFootprint> classes = new TreeMap<>();
+    private long shallowSize;
+    private long retainedSize;
+
+    /**
+     * Measures an AST
+     * @param ast the AST to measure
+     * @return the footprint of the nodes that are reachable from its root
+     */
+    public static ASTFootprint of(AST ast) {
+        ASTFootprint footprint = new ASTFootprint();
+        if (ast != null && ast.root != null) {
+            footprint.measure(ast.root);
+        }
+        return footprint;
+    }
+
+    // The footprint of every node class, by simple class name
+    public Map<String, ClassFootprint> getClasses() {
+        return Collections.unmodifiableMap(classes);
+    }
+
+    // The size of all nodes together
+    public long getShallowSize() {
+        return shallowSize;
+    }
+
+    // The size of all nodes with the lists, strings and errors they refer to
+    public long getRetainedSize() {
+        return retainedSize;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, ClassFootprint> entry : classes.entrySet()) {
+            ClassFootprint footprint = entry.getValue();
+            report.append(String.format("%-20s %8d instances %10d bytes shallow %10d bytes retained%n",
+                    entry.getKey(), footprint.instances, footprint.shallowSize, footprint.retainedSize));
+        }
+        return report.append(String.format("%-20s %8s %10d bytes shallow %10d bytes retained%n",
+                "Total", "", shallowSize, retainedSize)).toString();
+    }
+
+    private void measure(ASTNode root) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        new ASTWalker().walk(root, new ASTVisitor<>() {
+            @Override
+            public Boolean visitNode(ASTNode node) {
+                // The children of a shared node were measured the first time it was reached
+                if (!seen.add(node)) {
+                    return false;
+                }
+                long shallow = layout(node.getClass()).shallowSize;
+                long retained = shallow + referencedSize(node, seen);
+                ClassFootprint footprint = classes.computeIfAbsent(node.getClass().getSimpleName(),
+                        name -> new ClassFootprint());
+                footprint.instances++;
+                footprint.shallowSize += shallow;
+                footprint.retainedSize += retained;
+                shallowSize += shallow;
+                retainedSize += retained;
+                return true;
+            }
+        }, null);
+    }
+
+    // The size of everything but nodes that the object refers to and that was not counted before
+    private static long referencedSize(Object object, Set<Object> seen) {
+        long size = 0;
+        for (Field field : layout(object.getClass()).references) {
+            try {
+                size += ownedSize(field.get(object), seen);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Can't read " + field, e);
+            }
+        }
+        return size;
+    }
+
+    private static long ownedSize(Object value, Set<Object> seen) {
+        if (value == null || value instanceof ASTNode || value instanceof Enum || !seen.add(value)) {
+            return 0;
+        }
+        if (value instanceof String) {
+            String string = (String) value;
+            boolean latin1 = string.chars().allMatch(c -> c <= 0xff);
+            return align(HEADER_SIZE + REFERENCE_SIZE + 8) + align(ARRAY_HEADER_SIZE
+                    + (long) string.length() * (latin1 ? 1 : 2));
+        }
+        if (value instanceof ArrayList) {
+            // The list, its backing array and any elements that are not nodes
+            List<?> list = (List<?>) value;
+            long size = align(HEADER_SIZE + 8 + REFERENCE_SIZE)
+                    + align(ARRAY_HEADER_SIZE + (long) list.size() * REFERENCE_SIZE);
+            for (Object element : list) {
+                size += ownedSize(element, seen);
+            }
+            return size;
+        }
+        if (value.getClass().getName().startsWith("nl.han.ica.icss.")) {
+            return layout(value.getClass()).shallowSize + referencedSize(value, seen);
+        }
+        // Anything else (none of the node classes has such a field) is not measured
+        return 0;
+    }
+
+    private static Layout layout(Class<?> type) {
+        return layouts.computeIfAbsent(type, ASTFootprint::computeLayout);
+    }
+
+    private static Layout computeLayout(Class<?> type) {
+        long size = HEADER_SIZE;
+        ArrayList<Field> references = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                Class<?> fieldType = field.getType();
+                if (!fieldType.isPrimitive()) {
+                    size += REFERENCE_SIZE;
+                    field.setAccessible(true);
+                    references.add(field);
+                } else if (fieldType == long.class || fieldType == double.class) {
+                    size += 8;
+                } else if (fieldType == int.class || fieldType == float.class) {
+                    size += 4;
+                } else if (fieldType == short.class || fieldType == char.class) {
+                    size += 2;
+                } else {
+                    size += 1;
+                }
+            }
+        }
+        return new Layout(align(size), references.toArray(new Field[0]));
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -5,6 +5,13 @@ import nl.han.ica.icss.checker.SemanticError;
 import java.util.ArrayList;
 import java.util.List;
 
+/*
+ An AST is built with addChild, after that it is not changed anymore. A transformation creates new nodes
+ for the path from the root to whatever it changes (see the with... methods of the node classes) and shares
+ every other node with the original tree, so the AST of every phase stays available at no cost.
+ Errors are reported the same way: a phase sets them on new nodes that take the place of the ones with the
+ error, so the tree it was given doesn't gain errors afterwards.
+ */
 public class ASTNode {
 
     private SemanticError error = null;
@@ -19,10 +26,36 @@ public class ASTNode {
 
     /*
      Different AST nodes use different attributes to store their children.
-     This method provides a unified interface.
+     This method provides a unified interface. It copies the children into a new list,
+     passes that walk the whole tree should use getChildCount() and getChild(int) instead.
      */
     public ArrayList<ASTNode> getChildren() {
-        return new ArrayList<>();
+        int count = getChildCount();
+        ArrayList<ASTNode> children = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            children.add(getChild(i));
+        }
+        return children;
+    }
+
+    /*
+     In-place access to the children, in the same order as getChildren(), without allocating a list.
+     Subclasses with children override both methods.
+     */
+    public int getChildCount() {
+        return 0;
+    }
+
+    public ASTNode getChild(int index) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length 0");
+    }
+
+    /*
+     Double dispatch entry point for an ASTVisitor. Every concrete node class calls
+     the visit method for its own type.
+     */
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitNode(this);
     }
     /*
     By implementing this method in a subclass you can easily create AST nodes
@@ -32,6 +65,16 @@ public class ASTNode {
             return this;
     }
     /*
+    Adds several children in order, as addChild would one by one. Nodes with a list of children override it
+    to add them in bulk.
+    */
+    public ASTNode addChildren(List<? extends ASTNode> children) {
+        for (ASTNode child : children) {
+            addChild(child);
+        }
+        return this;
+    }
+    /*
     * By implementing this method you can easily make transformations that prune the AST.
     */
     public ASTNode removeChild(ASTNode child) {
@@ -52,34 +95,84 @@ public class ASTNode {
 
 	@Override
 	public String toString() {
-		StringBuilder result = new StringBuilder();
-		toString(result);
-		return result.toString();
-	}
-	private void toString(StringBuilder builder) {
-		builder.append("[");
-		builder.append(getNodeLabel());	
-		builder.append("|");
-		for(ASTNode child : getChildren()) {
-			child.toString(builder);
-		}	
-		builder.append("]");
+		StringBuilder builder = new StringBuilder();
+		new ASTWalker().walk(this, new ASTVisitor<>() {
+			@Override
+			public Boolean visitNode(ASTNode node) {
+				builder.append("[");
+				builder.append(node.getNodeLabel());
+				builder.append("|");
+				return true;
+			}
+		}, new ASTVisitor<Void>() {
+			@Override
+			public Void visitNode(ASTNode node) {
+				builder.append("]");
+				return null;
+			}
+		});
+		return builder.toString();
 	}
 
-	@Override
+    /*
+     Structural equality: the same kinds of nodes with the same data in the same shape. The trees are compared
+     with an explicit stack instead of recursion, so deeply nested if clauses don't overflow the call stack.
+     Nodes without children and operations compare themselves (see Operation), the nodes above them are equal
+     when their children are.
+     */
+    @Override
     public boolean equals(Object o) {
-        if(! (o instanceof ASTNode))
-            return false;
-        //Compare all children
-        List<ASTNode> thisChildren = this.getChildren();
-        List<ASTNode> otherChildren = ((ASTNode) o).getChildren();
-        if(otherChildren.size() != thisChildren.size())
-            return false;
-        for(int i = 0; i < thisChildren.size(); i++ ) {
-            if(!thisChildren.get(i).equals(otherChildren.get(i))) {
+        if (this == o) return true;
+        if (!(o instanceof ASTNode)) return false;
+        // Pairs of nodes that are left to compare, the left one at the even index
+        ArrayList<ASTNode> pending = new ArrayList<>();
+        pending.add(this);
+        pending.add((ASTNode) o);
+        while (!pending.isEmpty()) {
+            ASTNode right = pending.remove(pending.size() - 1);
+            ASTNode left = pending.remove(pending.size() - 1);
+            if (left == right) {
+                continue;
+            }
+            if (left == null || right == null || left.getClass() != right.getClass()) {
                 return false;
             }
+            int count = left.getChildCount();
+            if (left != this && comparesItself(left)) {
+                if (!left.equals(right)) {
+                    return false;
+                }
+            } else if (right.getChildCount() != count) {
+                return false;
+            } else {
+                for (int i = count - 1; i >= 0; i--) {
+                    pending.add(left.getChild(i));
+                    pending.add(right.getChild(i));
+                }
+            }
         }
         return true;
     }
+
+    // Combines the kinds of the nodes and the hashes of the nodes that compare themselves, in preorder
+    @Override
+    public int hashCode() {
+        int[] hash = {1};
+        new ASTWalker().walk(this, new ASTVisitor<>() {
+            @Override
+            public Boolean visitNode(ASTNode node) {
+                if (node != ASTNode.this && comparesItself(node)) {
+                    hash[0] = 31 * hash[0] + node.hashCode();
+                    return false;
+                }
+                hash[0] = 31 * (31 * hash[0] + node.getClass().getName().hashCode()) + node.getChildCount();
+                return true;
+            }
+        }, null);
+        return hash[0];
+    }
+
+    private static boolean comparesItself(ASTNode node) {
+        return node.getChildCount() == 0 || node instanceof Operation;
+    }
 }
@@ -0,0 +1,74 @@
+package nl.han.ica.icss.ast;
+
+import java.util.Arrays;
+
+/**
+ * Walks an AST depth first using an explicit stack instead of recursion, so the depth of the tree
+ * (deeply nested if clauses, long chains like a + b + c + ...) is limited by the heap and not by the call stack.
+ *
+ * For every node the enter visitor is called before its children and the exit visitor after them.
+ * When the enter visitor returns false the children of that node are skipped, the exit visitor is still called.
+ * Either visitor may be null.
+ *
+ * A walker can be reused for many walks, and walk may be called again from inside a visitor to walk
+ * a subtree with different visitors; the nested walk finishes before the outer walk continues.
+ */
+public class ASTWalker {
+
+    private ASTNode[] nodes = new ASTNode[32];
+    private int[] nextChild = new int[32];
+    private int depth = 0;
+
+    public void walk(ASTNode root, ASTVisitor<Boolean> enter, ASTVisitor<?> exit) {
+        int base = depth;
+        try {
+            visit(root, enter, exit);
+            while (depth > base) {
+                int top = depth - 1;
+                ASTNode node = nodes[top];
+                int index = nextChild[top];
+                if (index < node.getChildCount()) {
+                    nextChild[top] = index + 1;
+                    visit(node.getChild(index), enter, exit);
+                } else {
+                    nodes[top] = null;
+                    depth--;
+                    if (exit != null) {
+                        node.accept(exit);
+                    }
+                }
+            }
+        } finally {
+            // Only does something when a visitor threw, leaves the walker usable for the next walk.
+            while (depth > base) {
+                nodes[--depth] = null;
+            }
+        }
+    }
+
+    /**
+     * The parent of the node that is currently being entered or exited. For the root of a walk this is
+     * the current node of the enclosing walk, or null when there is none.
+     */
+    public ASTNode getParent() {
+        return depth > 0 ? nodes[depth - 1] : null;
+    }
+
+    private void visit(ASTNode node, ASTVisitor<Boolean> enter, ASTVisitor<?> exit) {
+        if (enter == null || !Boolean.FALSE.equals(node.accept(enter))) {
+            push(node);
+        } else if (exit != null) {
+            node.accept(exit);
+        }
+    }
+
+    private void push(ASTNode node) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            nextChild = Arrays.copyOf(nextChild, depth * 2);
+        }
+        nodes[depth] = node;
+        nextChild[depth] = 0;
+        depth++;
+    }
+}
@@ -1,6 +1,5 @@
 package nl.han.ica.icss.ast;
 
-import java.util.ArrayList;
 import java.util.Objects;
 
 /*
@@ -22,15 +21,28 @@ public class Declaration extends ASTNode {
 	    return "Declaration";
 	}
 
-	@Override
-	public ArrayList<ASTNode> getChildren() {
+	// A new declaration of the same property with the given expression, see ASTNode about changing a built AST
+	public Declaration withExpression(Expression expression) {
+		Declaration declaration = new Declaration();
+		declaration.property = property;
+		declaration.expression = expression;
+		return declaration;
+	}
 
-		ArrayList<ASTNode> children = new ArrayList<>();
-		if(property != null)
-		    children.add(property);
-		if(expression != null)
-		    children.add(expression);
-		return children;
+	@Override
+	public int getChildCount() {
+		return (property != null ? 1 : 0) + (expression != null ? 1 : 0);
+	}
+	@Override
+	public ASTNode getChild(int index) {
+		Objects.checkIndex(index, getChildCount());
+		if(index == 0 && property != null)
+			return property;
+		return expression;
+	}
+	@Override
+	public <R> R accept(ASTVisitor<R> visitor) {
+		return visitor.visitDeclaration(this);
 	}
 	@Override
 	public ASTNode addChild(ASTNode child) {
@@ -41,18 +53,4 @@ public class Declaration extends ASTNode {
 		}
 		return this;
 	}
-
-	@Override
-	public boolean equals(Object o) {
-		if (this == o) return true;
-		if (o == null || getClass() != o.getClass()) return false;
-		if (!super.equals(o)) return false;
-		Declaration that = (Declaration) o;
-		return Objects.equals(property, that.property) &&
-				Objects.equals(expression, that.expression);
-	}
-	@Override
-	public int hashCode() {
-		return Objects.hash(property, expression);
-	}
 }
@@ -1,7 +1,7 @@
 package nl.han.ica.icss.ast;
 
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.List;
 
 public class ElseClause extends ASTNode{
 
@@ -18,12 +18,24 @@ public class ElseClause extends ASTNode{
     public String getNodeLabel() {
         return "Else_Clause";
     }
+
+    // A new else clause with the given body, see ASTNode about changing a built AST
+    public ElseClause withBody(ArrayList<ASTNode> body) {
+        return new ElseClause(body);
+    }
     @Override
-    public ArrayList<ASTNode> getChildren() {
-        ArrayList<ASTNode> children = new ArrayList<>();
-        children.addAll(body);
+    public int getChildCount() {
+        return body.size();
+    }
 
-        return children;
+    @Override
+    public ASTNode getChild(int index) {
+        return body.get(index);
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitElseClause(this);
     }
 
     @Override
@@ -34,19 +46,8 @@ public class ElseClause extends ASTNode{
         return this;
     }
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        ElseClause ElseClause = (ElseClause) o;
-        return Objects.equals(body, ElseClause.body);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(body);
+    public ASTNode addChildren(List<? extends ASTNode> children) {
+        body.addAll(children);
+        return this;
     }
-
-
-
 }
@@ -1,6 +1,7 @@
 package nl.han.ica.icss.ast;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class IfClause extends ASTNode {
@@ -28,15 +29,32 @@ public class IfClause extends ASTNode {
     public String getNodeLabel() {
         return "If_Clause";
     }
+
+    // A new if clause with the given parts, see ASTNode about changing a built AST
+    public IfClause with(Expression conditionalExpression, ArrayList<ASTNode> body, ElseClause elseClause) {
+        return new IfClause(conditionalExpression, body, elseClause);
+    }
     @Override
-    public ArrayList<ASTNode> getChildren() {
-        ArrayList<ASTNode> children = new ArrayList<>();
-        children.add(conditionalExpression);
-        children.addAll(body);
-        if (elseClause!=null)
-            children.add(elseClause);
-
-        return children;
+    public int getChildCount() {
+        return (conditionalExpression != null ? 1 : 0) + body.size() + (elseClause != null ? 1 : 0);
+    }
+
+    @Override
+    public ASTNode getChild(int index) {
+        Objects.checkIndex(index, getChildCount());
+        if (conditionalExpression != null) {
+            if (index == 0)
+                return conditionalExpression;
+            index--;
+        }
+        if (index < body.size())
+            return body.get(index);
+        return elseClause;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitIfClause(this);
     }
 
     @Override
@@ -51,24 +69,17 @@ public class IfClause extends ASTNode {
         return this;
     }
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        IfClause ifClause = (IfClause) o;
-        if (this.elseClause == null)
-            return Objects.equals(conditionalExpression, ifClause.getConditionalExpression()) &&
-                Objects.equals(body, ifClause.body);
-        else
-            return Objects.equals(conditionalExpression, ifClause.getConditionalExpression()) &&
-                    Objects.equals(body, ifClause.body) &&
-                    Objects.equals(elseClause, ifClause.elseClause);
-
-    }
+    public ASTNode addChildren(List<? extends ASTNode> children) {
+        // The condition comes first and the else clause last, everything in between is the body
+        int start = 0;
+        int end = children.size();
+        if (start < end && children.get(start) instanceof Expression)
+            conditionalExpression = (Expression) children.get(start++);
+        if (start < end && children.get(end - 1) instanceof ElseClause)
+            elseClause = (ElseClause) children.get(--end);
+        body.addAll(children.subList(start, end));
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(conditionalExpression, body, elseClause);
+        return this;
     }
 
     public Expression getConditionalExpression() {
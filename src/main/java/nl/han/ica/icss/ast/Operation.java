@@ -1,20 +1,27 @@
 package nl.han.ica.icss.ast;
 
 import java.util.ArrayList;
+import java.util.Objects;
 
 public abstract class Operation extends Expression {
 
     public Expression lhs;
     public Expression rhs;
 
+    // Structural hash, computed on first use from the cached hashes of the operands. 0 means not computed yet.
+    private int hash;
+
+    @Override
+    public int getChildCount() {
+        return (lhs != null ? 1 : 0) + (rhs != null ? 1 : 0);
+    }
+
     @Override
-    public ArrayList<ASTNode> getChildren() {
-        ArrayList<ASTNode> children = new ArrayList<>();
-        if(lhs != null)
-            children.add(lhs);
-        if(rhs != null)
-            children.add(rhs);
-        return children;
+    public ASTNode getChild(int index) {
+        Objects.checkIndex(index, getChildCount());
+        if(index == 0 && lhs != null)
+            return lhs;
+        return rhs;
     }
 
     @Override
@@ -24,6 +31,81 @@ public abstract class Operation extends Expression {
         } else if(rhs == null) {
             rhs = (Expression) child;
         }
+        hash = 0;
         return this;
     }
+
+    /**
+     * Structural equality. The operands are compared with an explicit stack instead of recursion, so a long chain
+     * like a + b + c + ... that isn't shared with the other operation doesn't overflow the call stack.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        // Pairs of expressions that are left to compare, the left one at the even index
+        ArrayList<Expression> pending = new ArrayList<>();
+        pending.add(this);
+        pending.add((Operation) o);
+        while (!pending.isEmpty()) {
+            Expression right = pending.remove(pending.size() - 1);
+            Expression left = pending.remove(pending.size() - 1);
+            // Operands that are shared (see ASTListener) are equal by identity, so the comparison stops right there
+            if (left == right) {
+                continue;
+            }
+            if (left == null || right == null || left.getClass() != right.getClass()) {
+                return false;
+            }
+            if (left instanceof Operation) {
+                Operation leftOperation = (Operation) left;
+                Operation rightOperation = (Operation) right;
+                if (leftOperation.hashCode() != rightOperation.hashCode()) {
+                    return false;
+                }
+                pending.add(leftOperation.rhs);
+                pending.add(rightOperation.rhs);
+                pending.add(leftOperation.lhs);
+                pending.add(rightOperation.lhs);
+            } else if (!left.equals(right)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Structural hash, computed once. The operations below that have no hash yet get theirs first, bottom up with an
+     * explicit stack, so every hash is combined from the cached hashes of the operands without recursion.
+     */
+    @Override
+    public int hashCode() {
+        if (hash == 0) {
+            ArrayList<Operation> pending = new ArrayList<>();
+            pending.add(this);
+            while (!pending.isEmpty()) {
+                Operation operation = pending.get(pending.size() - 1);
+                Operation lhs = withoutHash(operation.lhs);
+                Operation rhs = withoutHash(operation.rhs);
+                if (lhs == null && rhs == null) {
+                    pending.remove(pending.size() - 1);
+                    int h = 31 * (31 * operation.getNodeLabel().hashCode() + Objects.hashCode(operation.lhs))
+                            + Objects.hashCode(operation.rhs);
+                    operation.hash = h == 0 ? 1 : h;
+                } else {
+                    if (lhs != null) {
+                        pending.add(lhs);
+                    }
+                    if (rhs != null) {
+                        pending.add(rhs);
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static Operation withoutHash(Expression operand) {
+        return operand instanceof Operation && ((Operation) operand).hash == 0 ? (Operation) operand : null;
+    }
 }
@@ -1,20 +1,42 @@
 package nl.han.ica.icss.ast;
 
+import nl.han.ica.icss.symbols.Symbols;
+
 public class PropertyName extends ASTNode {
 
-    public String name;
+    public final String name;
+    // Interned id of the name, see Symbols. Both are set once, from the same string
+    public final int symbol;
 
     public PropertyName() {
-        super();
-        name = "undefined";
+        this("undefined");
     }
     public PropertyName(String name) {
         super();
-        this.name = name;
+        this.symbol = Symbols.intern(name);
+        this.name = Symbols.name(symbol);
     }
 
     @Override
     public String getNodeLabel() {
         return "Property: (" + name + ")";
     }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitPropertyName(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PropertyName that = (PropertyName) o;
+        return symbol == that.symbol;
+    }
+
+    @Override
+    public int hashCode() {
+        return symbol;
+    }
 }
@@ -1,6 +1,7 @@
 package nl.han.ica.icss.ast;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class Stylerule extends ASTNode {
@@ -21,13 +22,28 @@ public class Stylerule extends ASTNode {
 	public String getNodeLabel() {
 		return "Stylerule";
 	}
-	@Override
-	public ArrayList<ASTNode> getChildren() {
-		ArrayList<ASTNode> children = new ArrayList<>();
-		children.addAll(selectors);
-		children.addAll(body);
 
-		return children;
+	// A new style rule with the same selectors and the given body, see ASTNode about changing a built AST
+	public Stylerule withBody(ArrayList<ASTNode> body) {
+		Stylerule stylerule = new Stylerule();
+		stylerule.selectors = selectors;
+		stylerule.body = body;
+		return stylerule;
+	}
+	@Override
+	public int getChildCount() {
+		return selectors.size() + body.size();
+	}
+	@Override
+	public ASTNode getChild(int index) {
+		Objects.checkIndex(index, getChildCount());
+		if(index < selectors.size())
+			return selectors.get(index);
+		return body.get(index - selectors.size());
+	}
+	@Override
+	public <R> R accept(ASTVisitor<R> visitor) {
+		return visitor.visitStylerule(this);
 	}
 
     @Override
@@ -40,17 +56,13 @@ public class Stylerule extends ASTNode {
 		return this;
     }
 	@Override
-	public boolean equals(Object o) {
-		if (this == o) return true;
-		if (o == null || getClass() != o.getClass()) return false;
-		if (!super.equals(o)) return false;
-		Stylerule stylerule = (Stylerule) o;
-		return Objects.equals(selectors, stylerule.selectors) &&
-				Objects.equals(body, stylerule.body);
-	}
-
-	@Override
-	public int hashCode() {
-		return Objects.hash(selectors, body);
+	public ASTNode addChildren(List<? extends ASTNode> children) {
+		// The selectors come before the body
+		int selectorCount = 0;
+		while (selectorCount < children.size() && children.get(selectorCount) instanceof Selector) {
+			selectors.add((Selector) children.get(selectorCount++));
+		}
+		body.addAll(children.subList(selectorCount, children.size()));
+		return this;
 	}
 }
@@ -1,9 +1,7 @@
 package nl.han.ica.icss.ast;
 
-import nl.han.ica.icss.checker.SemanticError;
-
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.List;
 
 /**
  * A stylesheet is the root node of the AST, it consists of one or more statements
@@ -24,33 +22,40 @@ public class Stylesheet extends ASTNode {
 	public String getNodeLabel() {
 		return "Stylesheet";
 	}
+
+	// A new stylesheet with the given body, see ASTNode about changing a built AST
+	public Stylesheet withBody(ArrayList<ASTNode> body) {
+		return new Stylesheet(body);
+	}
 	@Override
 	public ArrayList<ASTNode> getChildren() {
 		return this.body;
 	}
 	@Override
+	public int getChildCount() {
+		return body.size();
+	}
+	@Override
+	public ASTNode getChild(int index) {
+		return body.get(index);
+	}
+	@Override
+	public <R> R accept(ASTVisitor<R> visitor) {
+		return visitor.visitStylesheet(this);
+	}
+	@Override
 	public ASTNode addChild(ASTNode child) {
 	    	body.add(child);
 	    	return this;
 	}
 	@Override
-	public ASTNode removeChild(ASTNode child) {
-		body.remove(child);
+	public ASTNode addChildren(List<? extends ASTNode> children) {
+		body.addAll(children);
 		return this;
 	}
-
-	@Override
-	public boolean equals(Object o) {
-		if (this == o) return true;
-		if (o == null || getClass() != o.getClass()) return false;
-		if (!super.equals(o)) return false;
-		Stylesheet that = (Stylesheet) o;
-		return Objects.equals(body, that.body);
-	}
-
 	@Override
-	public int hashCode() {
-
-		return Objects.hash(body);
+	public ASTNode removeChild(ASTNode child) {
+		body.remove(child);
+		return this;
 	}
 }
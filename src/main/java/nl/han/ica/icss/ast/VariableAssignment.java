@@ -1,6 +1,5 @@
 package nl.han.ica.icss.ast;
 
-import java.util.ArrayList;
 import java.util.Objects;
 
 /**
@@ -17,6 +16,14 @@ public class VariableAssignment extends ASTNode {
 		return "VariableAssignment (" + name.name + ")";
 	}
 
+	// A new assignment of the expression to the same variable, see ASTNode about changing a built AST
+	public VariableAssignment withExpression(Expression expression) {
+		VariableAssignment variableAssignment = new VariableAssignment();
+		variableAssignment.name = name;
+		variableAssignment.expression = expression;
+		return variableAssignment;
+	}
+
 	@Override
 	public ASTNode addChild(ASTNode child) {
 		if(name == null) {
@@ -29,28 +36,20 @@ public class VariableAssignment extends ASTNode {
 	}
 
 	@Override
-	public ArrayList<ASTNode> getChildren() {
-
-		ArrayList<ASTNode> children = new ArrayList<>();
-		if(name != null)
-			children.add(name);
-		if(expression != null)
-			children.add(expression);
-		return children;
+	public int getChildCount() {
+		return (name != null ? 1 : 0) + (expression != null ? 1 : 0);
 	}
 
 	@Override
-	public boolean equals(Object o) {
-		if (this == o) return true;
-		if (o == null || getClass() != o.getClass()) return false;
-		if (!super.equals(o)) return false;
-		VariableAssignment that = (VariableAssignment) o;
-		return Objects.equals(name, that.name) &&
-				Objects.equals(expression, that.expression);
+	public ASTNode getChild(int index) {
+		Objects.checkIndex(index, getChildCount());
+		if(index == 0 && name != null)
+			return name;
+		return expression;
 	}
 
 	@Override
-	public int hashCode() {
-		return Objects.hash(name, expression);
+	public <R> R accept(ASTVisitor<R> visitor) {
+		return visitor.visitVariableAssignment(this);
 	}
 }
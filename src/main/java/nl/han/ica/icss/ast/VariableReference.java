@@ -1,14 +1,17 @@
 package nl.han.ica.icss.ast;
 
-import java.util.Objects;
+import nl.han.ica.icss.symbols.Symbols;
 
 public class VariableReference extends Expression {
 
-	public String name;
+	public final String name;
+	// Interned id of the name, see Symbols. Both are set once, from the same string
+	public final int symbol;
 	
 	public VariableReference(String name) {
 		super();
-		this.name = name;
+		this.symbol = Symbols.intern(name);
+		this.name = Symbols.name(symbol);
 	}
 
 	@Override
@@ -16,18 +19,22 @@ public class VariableReference extends Expression {
 		return "VariableReference (" + name + ")";
 	}
 
+	@Override
+	public <R> R accept(ASTVisitor<R> visitor) {
+		return visitor.visitVariableReference(this);
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		if (!super.equals(o)) return false;
 		VariableReference that = (VariableReference) o;
-		return Objects.equals(name, that.name);
+		return symbol == that.symbol;
 	}
 
 	@Override
 	public int hashCode() {
-
-		return Objects.hash(name);
+		return symbol;
 	}
 }
@@ -1,31 +1,71 @@
 package nl.han.ica.icss.ast.literals;
 
+import nl.han.ica.icss.ast.ASTVisitor;
 import nl.han.ica.icss.ast.Literal;
 
-import java.util.Objects;
-
 public class ColorLiteral extends Literal {
-    public String value;
+    // The color packed as 0xAARRGGBB, colors from the source are opaque (alpha 0xff)
+    public int value;
+
+    private static final int OPAQUE = 0xff000000;
+    // Two hex digits for every byte value, so formatting a channel is a table lookup
+    private static final char[] HEX_DIGITS = new char[512];
+
+    static {
+        String digits = "0123456789abcdef";
+        for (int i = 0; i < 256; i++) {
+            HEX_DIGITS[2 * i] = digits.charAt(i >>> 4);
+            HEX_DIGITS[2 * i + 1] = digits.charAt(i & 0xf);
+        }
+    }
 
-    public ColorLiteral(String value) {
+    public ColorLiteral(int value) {
         this.value = value;
     }
+    public ColorLiteral(String text) {
+        this.value = OPAQUE | Integer.parseInt(text.substring(1, 7), 16);
+    }
     @Override
     public String getNodeLabel() {
-        return "Color literal (" + value + ")";
+        StringBuilder builder = new StringBuilder("Color literal (");
+        appendHex(builder, value);
+        return builder.append(")").toString();
+    }
+
+    /**
+     * Appends a packed color in CSS notation, #rrggbb when it is opaque and #rrggbbaa otherwise
+     * @param builder the builder to append to
+     * @param color the color packed as 0xAARRGGBB
+     */
+    public static void appendHex(StringBuilder builder, int color) {
+        builder.append('#');
+        appendByte(builder, color >>> 16);
+        appendByte(builder, color >>> 8);
+        appendByte(builder, color);
+        if ((color & OPAQUE) != OPAQUE) {
+            appendByte(builder, color >>> 24);
+        }
+    }
+
+    private static void appendByte(StringBuilder builder, int value) {
+        int index = (value & 0xff) * 2;
+        builder.append(HEX_DIGITS[index]).append(HEX_DIGITS[index + 1]);
     }
 
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitColorLiteral(this);
+    }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ColorLiteral that = (ColorLiteral) o;
-        return Objects.equals(value, that.value);
+        return value == that.value;
     }
     @Override
     public int hashCode() {
-
-        return Objects.hash(value);
+        return value;
     }
 }
@@ -1,14 +1,17 @@
 package nl.han.ica.icss.ast.selectors;
 
+import nl.han.ica.icss.ast.ASTVisitor;
 import nl.han.ica.icss.ast.Selector;
-
-import java.util.Objects;
+import nl.han.ica.icss.symbols.Symbols;
 
 public class ClassSelector extends Selector {
-    public String cls;
+    public final String cls;
+    // Interned id of the selector text, see Symbols. Both are set once, from the same string
+    public final int symbol;
 
     public ClassSelector(String cls) {
-        this.cls = cls;
+        this.symbol = Symbols.intern(cls);
+        this.cls = Symbols.name(symbol);
     }
 
     @Override
@@ -20,16 +23,21 @@ public class ClassSelector extends Selector {
         return cls;
     }
 
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitClassSelector(this);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ClassSelector that = (ClassSelector) o;
-        return Objects.equals(cls, that.cls);
+        return symbol == that.symbol;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(cls);
+        return symbol;
     }
 }
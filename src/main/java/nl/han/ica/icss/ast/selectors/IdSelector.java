@@ -1,14 +1,17 @@
 package nl.han.ica.icss.ast.selectors;
 
+import nl.han.ica.icss.ast.ASTVisitor;
 import nl.han.ica.icss.ast.Selector;
-
-import java.util.Objects;
+import nl.han.ica.icss.symbols.Symbols;
 
 public class IdSelector extends Selector {
-    public String id;
+    public final String id;
+    // Interned id of the selector text, see Symbols. Both are set once, from the same string
+    public final int symbol;
 
     public IdSelector(String id) {
-        this.id = id;
+        this.symbol = Symbols.intern(id);
+        this.id = Symbols.name(symbol);
     }
 
     public String getNodeLabel() {
@@ -18,17 +21,22 @@ public class IdSelector extends Selector {
         return id;
     }
 
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitIdSelector(this);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         IdSelector that = (IdSelector) o;
-        return Objects.equals(id, that.id);
+        return symbol == that.symbol;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        return symbol;
     }
 }
@@ -1,14 +1,17 @@
 package nl.han.ica.icss.ast.selectors;
 
+import nl.han.ica.icss.ast.ASTVisitor;
 import nl.han.ica.icss.ast.Selector;
-
-import java.util.Objects;
+import nl.han.ica.icss.symbols.Symbols;
 
 public class TagSelector extends Selector {
-    public String tag;
+    public final String tag;
+    // Interned id of the selector text, see Symbols. Both are set once, from the same string
+    public final int symbol;
 
     public TagSelector(String tag) {
-        this.tag = tag;
+        this.symbol = Symbols.intern(tag);
+        this.tag = Symbols.name(symbol);
     }
 
     public String getNodeLabel() {
@@ -18,18 +21,22 @@ public class TagSelector extends Selector {
         return tag;
     }
 
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitTagSelector(this);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         TagSelector that = (TagSelector) o;
-        return Objects.equals(tag, that.tag);
+        return symbol == that.symbol;
     }
 
     @Override
     public int hashCode() {
-
-        return Objects.hash(tag);
+        return symbol;
     }
 }
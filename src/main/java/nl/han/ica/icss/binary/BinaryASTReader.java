@@ -0,0 +1,239 @@
+package nl.han.ica.icss.binary;
+
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.ast.literals.*;
+import nl.han.ica.icss.ast.operations.AddOperation;
+import nl.han.ica.icss.ast.operations.MultiplyOperation;
+import nl.han.ica.icss.ast.operations.SubtractOperation;
+import nl.han.ica.icss.ast.selectors.ClassSelector;
+import nl.han.ica.icss.ast.selectors.IdSelector;
+import nl.han.ica.icss.ast.selectors.TagSelector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static nl.han.ica.icss.binary.BinaryFormat.*;
+
+/**
+ * Loads an AST from the .icssb format (see BinaryFormat) without the lexer and parser. Nodes that were shared
+ * when the AST was written are shared again. The nodes are read iteratively, so the depth of the AST takes no
+ * call stack.
+ */
+public class BinaryASTReader {
+
+    private byte[] data;
+    private int position;
+    private String[] strings;
+
+    /**
+     * Reads an AST from a stream
+     * @param in the stream, which is read to its end and not closed
+     * @return the AST
+     * @throws IOException when reading fails or the data is not a valid .icssb file
+     */
+    public AST read(InputStream in) throws IOException {
+        return read(in.readAllBytes());
+    }
+
+    /**
+     * Reads an AST from .icssb data
+     * @param data the data
+     * @return the AST
+     * @throws IOException when the data is not a valid .icssb file
+     */
+    public AST read(byte[] data) throws IOException {
+        this.data = data;
+        position = 0;
+        try {
+            if (data.length < MAGIC.length + 1
+                    || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+                throw new IOException("Not an .icssb file");
+            }
+            position = MAGIC.length;
+            int version = readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported .icssb version " + version);
+            }
+            strings = new String[readSizedCount()];
+            for (int i = 0; i < strings.length; i++) {
+                int length = readSizedCount();
+                strings[i] = new String(data, position, length, StandardCharsets.UTF_8);
+                position += length;
+            }
+            ASTNode root = readNodes();
+            if (!(root instanceof Stylesheet) || position != data.length) {
+                throw new IOException("Corrupt .icssb file");
+            }
+            return new AST((Stylesheet) root);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt .icssb file", e);
+        } finally {
+            this.data = null;
+            strings = null;
+        }
+    }
+
+    /*
+     * Reads the node stream. The children of the nodes that are being read are collected in pending, a frame
+     * per node marks where its children start and how many are still to come. A node gets its children at once
+     * when the last one has been read. A reference to a node whose children are still being read would make that
+     * node its own descendant, so only references to complete nodes are valid.
+     */
+    private ASTNode readNodes() throws IOException {
+        ArrayList<ASTNode> numbered = new ArrayList<>();
+        // The numbers of the nodes that are waiting for their children
+        BitSet open = new BitSet();
+        ArrayList<ASTNode> pending = new ArrayList<>();
+        ASTNode[] frameNodes = new ASTNode[16];
+        int[] frameStarts = new int[16];
+        int[] frameRemaining = new int[16];
+        int[] frameNumbers = new int[16];
+        int depth = 0;
+        while (true) {
+            int tag = readByte();
+            ASTNode node;
+            int childCount;
+            if (tag == REFERENCE) {
+                int number = readCount();
+                if (open.get(number)) {
+                    throw new IOException("Corrupt .icssb file: reference to node " + number + " inside that node");
+                }
+                node = numbered.get(number);
+                childCount = 0;
+            } else {
+                String error = (tag & ERROR) != 0 ? strings[readCount()] : null;
+                node = readData(tag & ~ERROR);
+                if (error != null) {
+                    node.setError(error);
+                }
+                numbered.add(node);
+                childCount = readSizedCount();
+            }
+            if (childCount > 0) {
+                if (depth == frameNodes.length) {
+                    frameNodes = Arrays.copyOf(frameNodes, depth * 2);
+                    frameStarts = Arrays.copyOf(frameStarts, depth * 2);
+                    frameRemaining = Arrays.copyOf(frameRemaining, depth * 2);
+                    frameNumbers = Arrays.copyOf(frameNumbers, depth * 2);
+                }
+                frameNumbers[depth] = numbered.size() - 1;
+                open.set(numbered.size() - 1);
+                frameNodes[depth] = node;
+                frameStarts[depth] = pending.size();
+                frameRemaining[depth++] = childCount;
+                continue;
+            }
+            // The node is complete, and so is every parent whose last child it is
+            while (depth > 0) {
+                pending.add(node);
+                if (--frameRemaining[depth - 1] > 0) {
+                    break;
+                }
+                depth--;
+                List<ASTNode> children = pending.subList(frameStarts[depth], pending.size());
+                node = frameNodes[depth].addChildren(children);
+                children.clear();
+                frameNodes[depth] = null;
+                open.clear(frameNumbers[depth]);
+            }
+            if (depth == 0) {
+                return node;
+            }
+        }
+    }
+
+    private ASTNode readData(int tag) throws IOException {
+        switch (tag) {
+            case STYLESHEET:
+                return new Stylesheet();
+            case STYLERULE:
+                return new Stylerule();
+            case DECLARATION:
+                return new Declaration();
+            case PROPERTY_NAME:
+                return new PropertyName(readString());
+            case VARIABLE_ASSIGNMENT:
+                return new VariableAssignment();
+            case VARIABLE_REFERENCE:
+                return new VariableReference(readString());
+            case IF_CLAUSE:
+                return new IfClause();
+            case ELSE_CLAUSE:
+                return new ElseClause();
+            case ADD_OPERATION:
+                return new AddOperation();
+            case SUBTRACT_OPERATION:
+                return new SubtractOperation();
+            case MULTIPLY_OPERATION:
+                return new MultiplyOperation();
+            case BOOL_LITERAL:
+                return new BoolLiteral(readByte() != 0);
+            case COLOR_LITERAL:
+                return new ColorLiteral((int) readVarint());
+            case PERCENTAGE_LITERAL:
+                return new PercentageLiteral(readSigned());
+            case PIXEL_LITERAL:
+                return new PixelLiteral(readSigned());
+            case SCALAR_LITERAL:
+                return new ScalarLiteral(readSigned());
+            case CLASS_SELECTOR:
+                return new ClassSelector(readString());
+            case ID_SELECTOR:
+                return new IdSelector(readString());
+            case TAG_SELECTOR:
+                return new TagSelector(readString());
+            default:
+                throw new IOException("Unknown node tag " + tag + " in .icssb file");
+        }
+    }
+
+    private String readString() {
+        return strings[readCount()];
+    }
+
+    private int readSigned() {
+        long value = readVarint();
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    private int readCount() {
+        long value = readVarint();
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Count out of range");
+        }
+        return (int) value;
+    }
+
+    /*
+     * Reads the number of strings, children or bytes that follow. Every one of them takes at least a byte, so a
+     * count beyond the end of the data is corrupt, and rejecting it keeps a corrupt count from allocating anything.
+     */
+    private int readSizedCount() throws IOException {
+        int count = readCount();
+        if (count > data.length - position) {
+            throw new IOException("Corrupt .icssb file: count " + count + " exceeds the data");
+        }
+        return count;
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data[position++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Varint too long");
+    }
+
+    private int readByte() {
+        return data[position++] & 0xff;
+    }
+}
@@ -0,0 +1,266 @@
+package nl.han.ica.icss.binary;
+
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.ast.literals.*;
+import nl.han.ica.icss.ast.operations.AddOperation;
+import nl.han.ica.icss.ast.operations.MultiplyOperation;
+import nl.han.ica.icss.ast.operations.SubtractOperation;
+import nl.han.ica.icss.ast.selectors.ClassSelector;
+import nl.han.ica.icss.ast.selectors.IdSelector;
+import nl.han.ica.icss.ast.selectors.TagSelector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import static nl.han.ica.icss.binary.BinaryFormat.*;
+
+/**
+ * Writes an AST, checked or transformed, in the .icssb format (see BinaryFormat) so it can be loaded again
+ * without parsing. Errors on the nodes are kept. The AST is walked iteratively, so its depth takes no call stack.
+ */
+public class BinaryASTWriter {
+
+    private final ASTWalker walker = new ASTWalker();
+    private final HashMap<String, Integer> stringIndexes = new HashMap<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final IdentityHashMap<ASTNode, Integer> nodeNumbers = new IdentityHashMap<>();
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    /**
+     * Writes the AST to a stream
+     * @param ast the AST to write
+     * @param out the stream, which is not closed
+     * @throws IOException when writing to the stream fails
+     */
+    public void write(AST ast, OutputStream out) throws IOException {
+        out.write(write(ast));
+    }
+
+    /**
+     * Writes the AST into a byte array
+     * @param ast the AST to write
+     * @return the .icssb data
+     */
+    public byte[] write(AST ast) {
+        stringIndexes.clear();
+        strings.clear();
+        nodeNumbers.clear();
+        length = 0;
+        walker.walk(ast.root, writeNode, null);
+        byte[] nodes = Arrays.copyOf(buffer, length);
+
+        length = 0;
+        for (byte b : MAGIC) {
+            writeByte(b);
+        }
+        writeByte(VERSION);
+        writeVarint(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes, bytes.length);
+        }
+        writeBytes(nodes, nodes.length);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    // Writes a node, or a reference when it was written before, and tells the walker whether to write its children
+    private final ASTVisitor<Boolean> writeNode = new ASTVisitor<>() {
+        @Override
+        public Boolean visitNode(ASTNode node) {
+            Integer number = nodeNumbers.get(node);
+            if (number != null) {
+                writeByte(REFERENCE);
+                writeVarint(number);
+                return false;
+            }
+            nodeNumbers.put(node, nodeNumbers.size());
+            node.accept(writeData);
+            writeVarint(node.getChildCount());
+            return true;
+        }
+    };
+
+    private final ASTVisitor<Void> writeData = new ASTVisitor<>() {
+        @Override
+        public Void visitNode(ASTNode node) {
+            throw new IllegalArgumentException("Can't write a node of type " + node.getClass().getName());
+        }
+
+        @Override
+        public Void visitStylesheet(Stylesheet stylesheet) {
+            writeTag(STYLESHEET, stylesheet);
+            return null;
+        }
+
+        @Override
+        public Void visitStylerule(Stylerule stylerule) {
+            writeTag(STYLERULE, stylerule);
+            return null;
+        }
+
+        @Override
+        public Void visitDeclaration(Declaration declaration) {
+            writeTag(DECLARATION, declaration);
+            return null;
+        }
+
+        @Override
+        public Void visitPropertyName(PropertyName propertyName) {
+            writeTag(PROPERTY_NAME, propertyName);
+            writeString(propertyName.name);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableAssignment(VariableAssignment variableAssignment) {
+            writeTag(VARIABLE_ASSIGNMENT, variableAssignment);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableReference(VariableReference variableReference) {
+            writeTag(VARIABLE_REFERENCE, variableReference);
+            writeString(variableReference.name);
+            return null;
+        }
+
+        @Override
+        public Void visitIfClause(IfClause ifClause) {
+            writeTag(IF_CLAUSE, ifClause);
+            return null;
+        }
+
+        @Override
+        public Void visitElseClause(ElseClause elseClause) {
+            writeTag(ELSE_CLAUSE, elseClause);
+            return null;
+        }
+
+        @Override
+        public Void visitAddOperation(AddOperation operation) {
+            writeTag(ADD_OPERATION, operation);
+            return null;
+        }
+
+        @Override
+        public Void visitSubtractOperation(SubtractOperation operation) {
+            writeTag(SUBTRACT_OPERATION, operation);
+            return null;
+        }
+
+        @Override
+        public Void visitMultiplyOperation(MultiplyOperation operation) {
+            writeTag(MULTIPLY_OPERATION, operation);
+            return null;
+        }
+
+        @Override
+        public Void visitBoolLiteral(BoolLiteral literal) {
+            writeTag(BOOL_LITERAL, literal);
+            writeByte(literal.value ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitColorLiteral(ColorLiteral literal) {
+            writeTag(COLOR_LITERAL, literal);
+            writeVarint(literal.value & 0xffffffffL);
+            return null;
+        }
+
+        @Override
+        public Void visitPercentageLiteral(PercentageLiteral literal) {
+            writeTag(PERCENTAGE_LITERAL, literal);
+            writeSigned(literal.value);
+            return null;
+        }
+
+        @Override
+        public Void visitPixelLiteral(PixelLiteral literal) {
+            writeTag(PIXEL_LITERAL, literal);
+            writeSigned(literal.value);
+            return null;
+        }
+
+        @Override
+        public Void visitScalarLiteral(ScalarLiteral literal) {
+            writeTag(SCALAR_LITERAL, literal);
+            writeSigned(literal.value);
+            return null;
+        }
+
+        @Override
+        public Void visitClassSelector(ClassSelector selector) {
+            writeTag(CLASS_SELECTOR, selector);
+            writeString(selector.cls);
+            return null;
+        }
+
+        @Override
+        public Void visitIdSelector(IdSelector selector) {
+            writeTag(ID_SELECTOR, selector);
+            writeString(selector.id);
+            return null;
+        }
+
+        @Override
+        public Void visitTagSelector(TagSelector selector) {
+            writeTag(TAG_SELECTOR, selector);
+            writeString(selector.tag);
+            return null;
+        }
+    };
+
+    private void writeTag(int tag, ASTNode node) {
+        if (node.hasError()) {
+            writeByte(tag | ERROR);
+            writeString(node.getError().description);
+        } else {
+            writeByte(tag);
+        }
+    }
+
+    private void writeString(String string) {
+        Integer index = stringIndexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            stringIndexes.put(string, index);
+            strings.add(string);
+        }
+        writeVarint(index);
+    }
+
+    private void writeSigned(int value) {
+        writeVarint(((long) value << 1) ^ ((long) value >> 63));
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7fL) != 0) {
+            writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeByte(int b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, length * 2);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes, int count) {
+        if (length + count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+        }
+        System.arraycopy(bytes, 0, buffer, length, count);
+        length += count;
+    }
+}
@@ -0,0 +1,45 @@
+package nl.han.ica.icss.binary;
+
+/*
+ * The .icssb format of a stored AST.
+ *
+ * A file starts with the magic bytes "ICSB" and a version byte, followed by the string table: the number of
+ * strings and every string as its UTF-8 length and bytes. The node stream follows, with the nodes in preorder.
+ * A node is a tag byte, the data of its kind and the number of children that follow it. Names are indexes into
+ * the string table. Numbers are unsigned LEB128 varints, signed values are zigzag encoded first.
+ *
+ * Expressions are shared within an AST (see ExpressionTable), every node is numbered in the order it is written
+ * and a node that occurs again is written as a reference to its number. A node with an error has the ERROR bit
+ * set in its tag and the description of the error as a string index after the tag.
+ */
+final class BinaryFormat {
+
+    static final byte[] MAGIC = {'I', 'C', 'S', 'B'};
+    static final int VERSION = 1;
+
+    static final int REFERENCE = 0;
+    static final int STYLESHEET = 1;
+    static final int STYLERULE = 2;
+    static final int DECLARATION = 3;
+    static final int PROPERTY_NAME = 4;
+    static final int VARIABLE_ASSIGNMENT = 5;
+    static final int VARIABLE_REFERENCE = 6;
+    static final int IF_CLAUSE = 7;
+    static final int ELSE_CLAUSE = 8;
+    static final int ADD_OPERATION = 9;
+    static final int SUBTRACT_OPERATION = 10;
+    static final int MULTIPLY_OPERATION = 11;
+    static final int BOOL_LITERAL = 12;
+    static final int COLOR_LITERAL = 13;
+    static final int PERCENTAGE_LITERAL = 14;
+    static final int PIXEL_LITERAL = 15;
+    static final int SCALAR_LITERAL = 16;
+    static final int CLASS_SELECTOR = 17;
+    static final int ID_SELECTOR = 18;
+    static final int TAG_SELECTOR = 19;
+
+    static final int ERROR = 0x80;
+
+    private BinaryFormat() {
+    }
+}
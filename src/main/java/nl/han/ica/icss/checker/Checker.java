@@ -1,275 +1,610 @@
 package nl.han.ica.icss.checker;
 
-import nl.han.ica.datastructures.IHANLinkedList;
 import nl.han.ica.icss.ast.*;
 import nl.han.ica.icss.ast.literals.*;
 import nl.han.ica.icss.ast.operations.AddOperation;
 import nl.han.ica.icss.ast.operations.MultiplyOperation;
 import nl.han.ica.icss.ast.operations.SubtractOperation;
 import nl.han.ica.icss.ast.types.ExpressionType;
-import nl.han.ica.datastructures.HANLinkedList;
+import nl.han.ica.icss.symbols.Prelude;
+import nl.han.ica.icss.symbols.ScopeTable;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Objects;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
 
 
 public class Checker {
-    private final String COLOR_PROPERTY = "color";
-    private final String BACKGROUND_COLOR_PROPERTY = "background-color";
-    private final String WIDTH_PROPERTY = "width";
-    private final String HEIGHT_PROPERTY = "height";
-    private final String IF_STATEMENT = "ifClause";
-
-    private IHANLinkedList<HashMap<String, ExpressionType>> variableTypes;
-    private IHANLinkedList<HashMap<String, ASTNode>> variableValues; // Used to keep track of variable values
-    private ArrayList<String> allowedProperties;
-
-    public void check(AST ast) {
-        variableTypes = new HANLinkedList<>();
-        variableValues = new HANLinkedList<>();
-        allowedProperties = new ArrayList<>();
-        addAllowedProperties();
-        ASTNode root = ast.root;
-        check(root, 0);
-    }
-
-    private void addAllowedProperties() {
-        allowedProperties.add(COLOR_PROPERTY);
-        allowedProperties.add(BACKGROUND_COLOR_PROPERTY);
-        allowedProperties.add(WIDTH_PROPERTY);
-        allowedProperties.add(HEIGHT_PROPERTY);
-    }
-
-    private void check(ASTNode node, int scope) {
-        enterScope(scope);
-        ArrayList<ASTNode> children = node.getChildren();
-        for (ASTNode child : children) {
-            if (child instanceof Expression && node instanceof IfClause) {
-                checkExpression(IF_STATEMENT, (Expression) child, scope);
-            } else if (child instanceof Declaration) {
-                checkDeclaration((Declaration) child, scope);
-            } else if (child instanceof VariableAssignment) {
-                initializeVariable((VariableAssignment) child, scope);
-            } else if (child instanceof Stylerule || child instanceof IfClause || child instanceof ElseClause) {
-                check(child, scope + 1);
+    private static final EnumSet<ExpressionType> COLOR_TYPES = EnumSet.of(ExpressionType.COLOR);
+    private static final EnumSet<ExpressionType> SIZE_TYPES = EnumSet.of(ExpressionType.PIXEL, ExpressionType.PERCENTAGE);
+
+    private final PropertySchema propertySchema;
+    private final Prelude prelude;
+    private ScopeTable<ExpressionType> variableTypes;
+
+    // The walker and the stack of operand types are reused for every expression, so checking an expression
+    // takes no call stack depth and no allocations besides errors.
+    private final ASTWalker walker = new ASTWalker();
+    private ExpressionType[] operandTypes = new ExpressionType[16];
+    private int operandCount;
+
+    // While collecting, errors are only noted and not set on the nodes, see checkUnshared
+    private boolean collectingErrors;
+    private boolean errorFound;
+    // Number of errors set since the last begin or check of a whole AST
+    private int errorCount;
+
+    /*
+     * The AST is not changed, errors are set on new nodes instead (see ASTNode). Every statement that is exited
+     * pushes its result, the statement itself when it has no errors, and a container only becomes a new node
+     * when one of its children did, like the results of EvalExpressions.
+     */
+    private ASTNode[] results = new ASTNode[16];
+    private int resultCount;
+    // Checked conditions of the if clauses that are being walked
+    private Expression[] conditions = new Expression[8];
+    private int conditionCount;
+    // The global variables with errors and their checked copies, for end
+    private final IdentityHashMap<ASTNode, ASTNode> checkedGlobals = new IdentityHashMap<>();
+    // The checked copy of the style rule of the last check that failed
+    private Stylerule failed;
+
+    public Checker() {
+        this(PropertySchema.getDefault());
+    }
+
+    public Checker(PropertySchema propertySchema) {
+        this(propertySchema, Prelude.EMPTY);
+    }
+
+    /**
+     * Creates a checker for stylesheets that can use the variables of a prelude
+     * @param propertySchema the properties and the types they accept
+     * @param prelude the variables that are in scope for every stylesheet
+     */
+    public Checker(PropertySchema propertySchema, Prelude prelude) {
+        this.propertySchema = propertySchema;
+        this.prelude = prelude;
+    }
+
+    /**
+     * Checks a whole AST, which is left unchanged
+     * @param ast the AST to check
+     * @return the AST with the errors, which shares every statement without errors with the given AST
+     */
+    public AST check(AST ast) {
+        reset();
+        walker.walk(ast.root, enterStatement, exitStatement);
+        Stylesheet checked = (Stylesheet) popResult();
+        return checked == ast.root ? ast : new AST(checked);
+    }
+
+    /**
+     * Starts checking a stylesheet one style rule at a time by checking its global variables.
+     * The globals stay in scope for every call to check(Stylerule) until end is called.
+     * @param stylesheet the stylesheet to check
+     * @return true if the global variables have no errors
+     */
+    public boolean begin(Stylesheet stylesheet) {
+        reset();
+        enterGlobalScope();
+        for (ASTNode child : stylesheet.body) {
+            if (child instanceof VariableAssignment) {
+                VariableAssignment checked = initializeVariable((VariableAssignment) child);
+                if (checked != child) {
+                    checkedGlobals.put(child, checked);
+                }
             }
         }
-        exitScope(scope);
+        return errorCount == 0;
     }
 
-    private void initializeVariable(VariableAssignment variableAssignment, int scope) {
-        Expression expression = variableAssignment.expression;
-        ExpressionType expressionType = getLiteralExpressionType(expression);
+    /**
+     * Checks one style rule of the stylesheet that was passed to begin
+     * @param stylerule the style rule to check
+     * @return true if the style rule has no errors, see getFailed otherwise
+     */
+    public boolean check(Stylerule stylerule) {
+        int errorsBefore = errorCount;
+        walker.walk(stylerule, enterStatement, exitStatement);
+        Stylerule checked = (Stylerule) popResult();
+        failed = errorCount == errorsBefore ? null : checked;
+        return failed == null;
+    }
 
-        VariableReference reference = variableAssignment.name;
-        variableTypes.get(scope).put(reference.name, expressionType);
-        variableValues.get(scope).put(reference.name, variableAssignment.expression);
+    // The style rule of the last check that returned false, with the errors on copies of the nodes that have them
+    public Stylerule getFailed() {
+        return failed;
     }
 
-    private ExpressionType getLiteralExpressionType(Expression expression) {
-        if (expression instanceof BoolLiteral) {
-            return ExpressionType.BOOL;
-        } else if (expression instanceof ColorLiteral) {
-            return ExpressionType.COLOR;
-        } else if (expression instanceof PercentageLiteral) {
-            return ExpressionType.PERCENTAGE;
-        } else if (expression instanceof PixelLiteral) {
-            return ExpressionType.PIXEL;
-        } else if (expression instanceof ScalarLiteral) {
-            return ExpressionType.SCALAR;
-        } else {
-            return ExpressionType.UNDEFINED;
+    /**
+     * Ends the check that was started with begin
+     * @param stylesheet the stylesheet with the checked style rules
+     * @return the stylesheet with the errors that begin found in its global variables
+     */
+    public Stylesheet end(Stylesheet stylesheet) {
+        exitScope();
+        if (checkedGlobals.isEmpty()) {
+            return stylesheet;
+        }
+        ArrayList<ASTNode> body = new ArrayList<>(stylesheet.body.size());
+        for (ASTNode child : stylesheet.body) {
+            body.add(checkedGlobals.getOrDefault(child, child));
         }
+        checkedGlobals.clear();
+        return stylesheet.withBody(body);
     }
 
-    private void checkDeclaration(Declaration declaration, int scope) {
-        String declarationProperty = declaration.property.name;
-        if (allowedProperties.contains(declarationProperty)) {
-            checkExpression(declarationProperty, declaration.expression, scope);
-        } else {
-            declaration.setError("Property '" + declarationProperty + "' is not allowed.");
-        }
+    /**
+     * Returns the type of a variable that is in scope, such as a global between begin and end
+     * @param symbol the symbol id of the variable
+     * @return the type, or null when the variable is not in scope
+     */
+    public ExpressionType getType(int symbol) {
+        return variableTypes.get(symbol);
     }
 
-    // Original expression is used in checkIfPropertyAndExceptionTypeMatch
-    private void checkExpression(String property, Expression expression, int scope) {
-        ExpressionType expressionType; // Used to check expression type of variable
-        if (expression instanceof VariableReference) {
-            expressionType = getVariableExpressionType(scope, (VariableReference) expression);
-        } else {
-            expressionType = getLiteralExpressionType(expression);
+    private void reset() {
+        variableTypes = new ScopeTable<>();
+        operandCount = 0;
+        errorCount = 0;
+        resultCount = 0;
+        conditionCount = 0;
+        checkedGlobals.clear();
+        failed = null;
+    }
+
+    // Statements open a scope or are checked on their own; the expressions inside them are checked by typeOf.
+    private final ASTVisitor<Boolean> enterStatement = new ASTVisitor<>() {
+        @Override
+        public Boolean visitNode(ASTNode node) {
+            return false;
         }
 
-        if (expression instanceof Literal || expression instanceof VariableReference) {
-            checkIfProperyAndExceptionTypeMatch(property, expression, expressionType, scope);
-        } else if (expression instanceof Operation) {
-            checkOperation(property, (Operation) expression, scope);
+        @Override
+        public Boolean visitStylesheet(Stylesheet stylesheet) {
+            enterGlobalScope();
+            return true;
         }
 
-        // If the expression is a conditional expression, check if the expression type is boolean.
-        if (property.equals(IF_STATEMENT) && expressionType != ExpressionType.BOOL) {
-            expression.setError("Conditional expression is not a boolean type.");
+        @Override
+        public Boolean visitStylerule(Stylerule stylerule) {
+            enterScope();
+            return true;
         }
-    }
 
-    private Expression originalExpression = null; // Variable is used to keep track of the original expression when looping through variables
+        @Override
+        public Boolean visitIfClause(IfClause ifClause) {
+            enterScope();
+            pushCondition(checkConditionalExpression(ifClause.conditionalExpression));
+            return true;
+        }
 
-    private void checkIfProperyAndExceptionTypeMatch(String property, Expression expression, ExpressionType expressionType, int scope) {
-        // If the type is undefined there is a variable reference in the variable reference
-        // If there is, check that variable
-        if (expressionType == ExpressionType.UNDEFINED) {
-            checkExpressionTypeOfVariableExpression(property, expression, scope);
-        } else {
-            switch (property) {
-                case COLOR_PROPERTY:
-                case BACKGROUND_COLOR_PROPERTY:
-                    if (expressionType != ExpressionType.COLOR) {
-                        if (originalExpression == null) {
-                            setExpressionError(expression, "Expression is not a color value");
-                        } else {
-                            setExpressionError(originalExpression, "Expression is not a color value");
-                            originalExpression = null; // originalExpression needs to be reset, otherwise it is a one time use
-                        }
-                    }
-                    break;
-                case WIDTH_PROPERTY:
-                case HEIGHT_PROPERTY:
-                    if (expressionType != ExpressionType.PIXEL && expressionType != ExpressionType.PERCENTAGE) {
-                        if (originalExpression == null) {
-                            setExpressionError(expression, "Expression is neither a pixel value or a percentage");
-                        } else {
-                            setExpressionError(originalExpression, "Expression is neither a pixel value or a percentage");
-                            originalExpression = null; // originalExpression needs to be reset, otherwise it is a one time use
-                        }
-                    }
-                    break;
+        @Override
+        public Boolean visitElseClause(ElseClause elseClause) {
+            enterScope();
+            return true;
+        }
+    };
+
+    // Declarations and variable assignments are checked when they are exited, right after they were entered
+    private final ASTVisitor<Void> exitStatement = new ASTVisitor<>() {
+        @Override
+        public Void visitNode(ASTNode node) {
+            pushResult(node);
+            return null;
+        }
+
+        @Override
+        public Void visitDeclaration(Declaration declaration) {
+            pushResult(checkDeclaration(declaration));
+            return null;
+        }
+
+        @Override
+        public Void visitVariableAssignment(VariableAssignment variableAssignment) {
+            pushResult(initializeVariable(variableAssignment));
+            return null;
+        }
+
+        @Override
+        public Void visitStylesheet(Stylesheet stylesheet) {
+            exitScope();
+            ArrayList<ASTNode> body = popBody(stylesheet.body);
+            pushResult(body == stylesheet.body ? stylesheet : stylesheet.withBody(body));
+            return null;
+        }
+
+        @Override
+        public Void visitStylerule(Stylerule stylerule) {
+            exitScope();
+            ArrayList<ASTNode> body = popBody(stylerule.body);
+            popResults(stylerule.selectors.size());
+            pushResult(body == stylerule.body ? stylerule : stylerule.withBody(body));
+            return null;
+        }
+
+        @Override
+        public Void visitIfClause(IfClause ifClause) {
+            exitScope();
+            ElseClause elseClause = ifClause.elseClause != null ? (ElseClause) popResult() : null;
+            ArrayList<ASTNode> body = popBody(ifClause.body);
+            if (ifClause.conditionalExpression != null) {
+                popResults(1);
             }
+            Expression condition = popCondition();
+            boolean changed = condition != ifClause.conditionalExpression || body != ifClause.body || elseClause != ifClause.elseClause;
+            pushResult(changed ? ifClause.with(condition, body, elseClause) : ifClause);
+            return null;
+        }
+
+        @Override
+        public Void visitElseClause(ElseClause elseClause) {
+            exitScope();
+            ArrayList<ASTNode> body = popBody(elseClause.body);
+            pushResult(body == elseClause.body ? elseClause : elseClause.withBody(body));
+            return null;
         }
+    };
+
+    /*
+     * Expressions are shared between statements (see ExpressionTable), while an error belongs to one occurrence:
+     * the same variable can be declared in one style rule and missing in the next. So every statement is first
+     * checked without setting errors. Only when it has errors the statement is copied with a private copy of its
+     * expression, which is checked again to set the errors on.
+     */
+    private void startCollectingErrors() {
+        collectingErrors = true;
+        errorFound = false;
     }
 
-    private void checkExpressionTypeOfVariableExpression(String property, Expression expression, int scope) {
-        if (expression instanceof VariableReference) {
-            Expression variableValue = getVariableValue((VariableReference) expression, scope);
-            if (originalExpression == null) {
-                originalExpression = expression;
-            }
-            checkExpression(property, variableValue, scope);
+    private boolean stopCollectingErrors() {
+        collectingErrors = false;
+        return errorFound;
+    }
+
+    // Returns the assignment, or a copy with the errors when it has errors
+    private VariableAssignment initializeVariable(VariableAssignment variableAssignment) {
+        startCollectingErrors();
+        ExpressionType expressionType = typeOf(variableAssignment.expression);
+        VariableAssignment checked = variableAssignment;
+        if (stopCollectingErrors()) {
+            checked = variableAssignment.withExpression(copyExpression(variableAssignment.expression));
+            expressionType = typeOf(checked.expression);
+        }
+        variableTypes.put(variableAssignment.name.symbol, expressionType);
+        return checked;
+    }
+
+    private Expression checkConditionalExpression(Expression expression) {
+        startCollectingErrors();
+        checkConditionalExpressionType(expression);
+        if (stopCollectingErrors()) {
+            expression = copyExpression(expression);
+            checkConditionalExpressionType(expression);
+        }
+        return expression;
+    }
+
+    private void checkConditionalExpressionType(Expression expression) {
+        ExpressionType expressionType = typeOf(expression);
+        if (expressionType != ExpressionType.BOOL && expressionType != ExpressionType.UNDEFINED) {
+            setExpressionError(expression, "Conditional expression is not a boolean type.");
+        }
+    }
+
+    // Returns the declaration, or a copy with the errors when it has errors
+    private Declaration checkDeclaration(Declaration declaration) {
+        int declarationProperty = declaration.property.symbol;
+        if (!propertySchema.isAllowed(declarationProperty)) {
+            Declaration checked = declaration.withExpression(declaration.expression);
+            checked.setError("Property '" + declaration.property.name + "' is not allowed.");
+            errorCount++;
+            return checked;
+        }
+        startCollectingErrors();
+        checkIfProperyAndExceptionTypeMatch(declarationProperty, declaration.expression, typeOf(declaration.expression));
+        if (!stopCollectingErrors()) {
+            return declaration;
+        }
+        Declaration checked = declaration.withExpression(copyExpression(declaration.expression));
+        checkIfProperyAndExceptionTypeMatch(declarationProperty, checked.expression, typeOf(checked.expression));
+        return checked;
+    }
+
+    private void checkIfProperyAndExceptionTypeMatch(int property, Expression expression, ExpressionType expressionType) {
+        // An undefined type means an error has already been reported inside the expression
+        if (expressionType == ExpressionType.UNDEFINED || propertySchema.accepts(property, expressionType)) {
+            return;
+        }
+        // The error is only built on a mismatch, so a valid declaration costs a single lookup
+        EnumSet<ExpressionType> acceptedTypes = propertySchema.getAcceptedTypes(property);
+        if (acceptedTypes.equals(COLOR_TYPES)) {
+            setExpressionError(expression, "Expression is not a color value");
+        } else if (acceptedTypes.equals(SIZE_TYPES)) {
+            setExpressionError(expression, "Expression is neither a pixel value or a percentage");
+        } else {
+            setExpressionError(expression, "Expression of type " + expressionType + " is not allowed here, expected one of " + acceptedTypes);
         }
     }
 
     private void setExpressionError(Expression expression, String error) {
+        if (collectingErrors) {
+            errorFound = true;
         // This IF will prevent a previously set error from being overwritten
-        if (expression.getError() == null) {
+        } else if (expression.getError() == null) {
             expression.setError(error);
+            errorCount++;
         }
     }
 
-    private Expression getVariableValue(VariableReference variableReference, int scope) {
-        Expression expression = null;
-        for (int i = 0; i <= scope; i++) {
-            expression = (Expression) variableValues.get(i).get(variableReference.name);
-            if (expression != null) {
-                break;
-            }
+    /*
+     * Determines the type of an expression bottom up: literals and variables push their type on the operand
+     * stack, operations pop the types of their operands and push their own. Errors are set on the innermost
+     * node that causes them, everything above it becomes UNDEFINED so the error is reported only once.
+     */
+    private ExpressionType typeOf(Expression expression) {
+        if (expression == null) {
+            return ExpressionType.UNDEFINED;
         }
-        return expression;
+        int base = operandCount;
+        walker.walk(expression, null, expressionTypes);
+        ExpressionType expressionType = operandCount > base ? popType() : ExpressionType.UNDEFINED;
+        operandCount = base;
+        return expressionType;
     }
 
-    private ExpressionType getVariableExpressionType(int scope, VariableReference variableReference) {
-        ExpressionType expressionType = null;
-        for (int i = 0; i <= scope; i++) {
-            expressionType = variableTypes.get(i).get(variableReference.name);
-            if (expressionType != null) {
-                break;
-            }
+    private final ASTVisitor<Void> expressionTypes = new ASTVisitor<>() {
+        @Override
+        public Void visitBoolLiteral(BoolLiteral literal) {
+            pushType(ExpressionType.BOOL);
+            return null;
+        }
+
+        @Override
+        public Void visitColorLiteral(ColorLiteral literal) {
+            pushType(ExpressionType.COLOR);
+            return null;
+        }
+
+        @Override
+        public Void visitPercentageLiteral(PercentageLiteral literal) {
+            pushType(ExpressionType.PERCENTAGE);
+            return null;
+        }
+
+        @Override
+        public Void visitPixelLiteral(PixelLiteral literal) {
+            pushType(ExpressionType.PIXEL);
+            return null;
         }
 
-        // If expression type is null when code is reached it means the variable is not known in the hashmaps.
+        @Override
+        public Void visitScalarLiteral(ScalarLiteral literal) {
+            pushType(ExpressionType.SCALAR);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableReference(VariableReference variableReference) {
+            pushType(getVariableExpressionType(variableReference));
+            return null;
+        }
+
+        @Override
+        public Void visitAddOperation(AddOperation operation) {
+            checkAddAndSubtractOperation(operation);
+            return null;
+        }
+
+        @Override
+        public Void visitSubtractOperation(SubtractOperation operation) {
+            checkAddAndSubtractOperation(operation);
+            return null;
+        }
+
+        @Override
+        public Void visitMultiplyOperation(MultiplyOperation operation) {
+            checkMultiplyOperation(operation);
+            return null;
+        }
+    };
+
+    private ExpressionType getVariableExpressionType(VariableReference variableReference) {
+        ExpressionType expressionType = variableTypes.get(variableReference.symbol);
+
+        // If expression type is null when code is reached it means the variable is not known in any scope.
         if (expressionType == null) {
-            variableReference.setError("Variable '" + variableReference.name + "' is not declared or out of scope.");
+            setExpressionError(variableReference, "Variable '" + variableReference.name + "' is not declared or out of scope.");
+            return ExpressionType.UNDEFINED;
         }
 
         return expressionType;
     }
 
-    private void checkOperation(String property, Operation operation, int scope) {
-        Expression leftExpression = operation.lhs;
-        Expression rightExpression = operation.rhs;
+    private void checkAddAndSubtractOperation(Operation operation) {
+        ExpressionType rightExpressionType = popType();
+        ExpressionType leftExpressionType = popType();
+        if (!operandTypesAllowed(operation, leftExpressionType, rightExpressionType)) {
+            pushType(ExpressionType.UNDEFINED);
+        } else if (leftExpressionType == ExpressionType.COLOR && rightExpressionType == ExpressionType.PERCENTAGE) {
+            // Adding or subtracting a percentage lightens or darkens a color
+            pushType(ExpressionType.COLOR);
+        } else if (leftExpressionType != rightExpressionType) {
+            setExpressionError(operation, "Operations expressions do not match. In addition and subtraction expressions need to match.");
+            pushType(ExpressionType.UNDEFINED);
+        } else {
+            pushType(leftExpressionType);
+        }
+    }
+
+    private void checkMultiplyOperation(Operation operation) {
+        ExpressionType rightExpressionType = popType();
+        ExpressionType leftExpressionType = popType();
+        if (!operandTypesAllowed(operation, leftExpressionType, rightExpressionType)) {
+            pushType(ExpressionType.UNDEFINED);
+        } else if (leftExpressionType != ExpressionType.SCALAR && rightExpressionType != ExpressionType.SCALAR) {
+            setExpressionError(operation, "At least one of the expressions needs to be a scalar literal.");
+            pushType(ExpressionType.UNDEFINED);
+        } else {
+            // Scalar times a unit (or a color) keeps the unit
+            pushType(leftExpressionType == ExpressionType.SCALAR ? rightExpressionType : leftExpressionType);
+        }
+    }
 
-        if (leftExpression instanceof Operation) {
-            checkOperation(property, (Operation) leftExpression, scope);
+    private boolean operandTypesAllowed(Operation operation, ExpressionType leftExpressionType, ExpressionType rightExpressionType) {
+        if (leftExpressionType == ExpressionType.UNDEFINED || rightExpressionType == ExpressionType.UNDEFINED) {
+            return false;
         }
-        if (rightExpression instanceof Operation) {
-            checkOperation(property, (Operation) rightExpression, scope);
+        if (leftExpressionType == ExpressionType.BOOL || rightExpressionType == ExpressionType.BOOL) {
+            setExpressionError(operation, "A boolean cannot be used in an operation.");
+            return false;
         }
+        return true;
+    }
 
-        if (!(leftExpression instanceof Operation || rightExpression instanceof Operation)) {
-            leftExpression = getExpressionFromVariable(scope, leftExpression);
-            rightExpression = getExpressionFromVariable(scope, rightExpression);
+    // Copies an expression into new nodes that are not shared with any other statement
+    private Expression copyExpression(Expression expression) {
+        ArrayList<Expression> copies = new ArrayList<>();
+        walker.walk(expression, null, new ASTVisitor<Void>() {
+            @Override
+            public Void visitBoolLiteral(BoolLiteral literal) {
+                copies.add(new BoolLiteral(literal.value));
+                return null;
+            }
 
-            if (leftExpression instanceof ColorLiteral || rightExpression instanceof ColorLiteral) {
-                operation.setError("Color literal is not allowed in an operation.");
+            @Override
+            public Void visitColorLiteral(ColorLiteral literal) {
+                copies.add(new ColorLiteral(literal.value));
+                return null;
             }
 
-            if (leftExpression instanceof BoolLiteral || rightExpression instanceof BoolLiteral) {
-                operation.setError("A boolean cannot be used in an operation.");
+            @Override
+            public Void visitPercentageLiteral(PercentageLiteral literal) {
+                copies.add(new PercentageLiteral(literal.value));
+                return null;
             }
 
-            if (operation instanceof MultiplyOperation) {
-                checkMultiplyOperation(operation, leftExpression, rightExpression);
-            } else if (operation instanceof AddOperation || operation instanceof SubtractOperation) {
-                checkAddAndSubtractOperation(operation, scope, leftExpression, rightExpression);
+            @Override
+            public Void visitPixelLiteral(PixelLiteral literal) {
+                copies.add(new PixelLiteral(literal.value));
+                return null;
             }
-        }
+
+            @Override
+            public Void visitScalarLiteral(ScalarLiteral literal) {
+                copies.add(new ScalarLiteral(literal.value));
+                return null;
+            }
+
+            @Override
+            public Void visitVariableReference(VariableReference variableReference) {
+                copies.add(new VariableReference(variableReference.name));
+                return null;
+            }
+
+            @Override
+            public Void visitAddOperation(AddOperation operation) {
+                return copyOperation(new AddOperation());
+            }
+
+            @Override
+            public Void visitSubtractOperation(SubtractOperation operation) {
+                return copyOperation(new SubtractOperation());
+            }
+
+            @Override
+            public Void visitMultiplyOperation(MultiplyOperation operation) {
+                return copyOperation(new MultiplyOperation());
+            }
+
+            private Void copyOperation(Operation copy) {
+                Expression rhs = copies.remove(copies.size() - 1);
+                copy.lhs = copies.remove(copies.size() - 1);
+                copy.rhs = rhs;
+                copies.add(copy);
+                return null;
+            }
+        });
+        return copies.isEmpty() ? expression : copies.get(0);
     }
 
-    private Expression getExpressionFromVariable(int scope, Expression expression) {
-        while (expression instanceof VariableReference) {
-            expression = getVariableValue((VariableReference) expression, scope);
+    private void pushType(ExpressionType expressionType) {
+        if (operandCount == operandTypes.length) {
+            operandTypes = Arrays.copyOf(operandTypes, operandCount * 2);
         }
-        return expression;
+        operandTypes[operandCount++] = expressionType;
     }
 
-    private void checkAddAndSubtractOperation(Operation operation, int scope, Expression leftExpression, Expression rightExpression) {
-        if (!expressionLiteralsMatch(leftExpression, rightExpression, scope)) {
-            operation.setError("Operations expressions do not match. In addition and subtraction expressions need to match.");
+    private ExpressionType popType() {
+        // An operation with a missing operand can only come from a partial parse, treat the operand as unknown
+        if (operandCount == 0) {
+            return ExpressionType.UNDEFINED;
         }
+        return operandTypes[--operandCount];
     }
 
-    private void checkMultiplyOperation(Operation operation, Expression leftExpression, Expression rightExpression) {
-        if (!(leftExpression instanceof ScalarLiteral) && !(rightExpression instanceof ScalarLiteral)) {
-            operation.setError("At least one of the expressions needs to be a scalar literal.");
+    private void pushResult(ASTNode result) {
+        if (resultCount == results.length) {
+            results = Arrays.copyOf(results, resultCount * 2);
         }
+        results[resultCount++] = result;
     }
 
-    private boolean expressionLiteralsMatch(Expression leftExpression, Expression rightExpression, int scope) {
-        ExpressionType leftExpressionType;
-        ExpressionType rightExpressionType;
+    private ASTNode popResult() {
+        ASTNode result = results[--resultCount];
+        results[resultCount] = null;
+        return result;
+    }
 
-        // If the expression if a variable, check get variable expression type, else get literal expression type.
-        if (leftExpression instanceof VariableReference) {
-            leftExpressionType = getVariableExpressionType(scope, (VariableReference) leftExpression);
-        } else {
-            leftExpressionType = getLiteralExpressionType(leftExpression);
+    private void popResults(int count) {
+        while (count-- > 0) {
+            popResult();
         }
+    }
 
-        if (rightExpression instanceof VariableReference) {
-            rightExpressionType = getVariableExpressionType(scope, (VariableReference) rightExpression);
-        } else {
-            rightExpressionType = getLiteralExpressionType(rightExpression);
+    // Takes the results of the statements in a body, which is returned as is when none of them changed
+    private ArrayList<ASTNode> popBody(ArrayList<ASTNode> body) {
+        int start = resultCount - body.size();
+        ArrayList<ASTNode> statements = body;
+        for (int i = 0; i < body.size(); i++) {
+            if (results[start + i] != body.get(i)) {
+                statements = new ArrayList<>(Arrays.asList(results).subList(start, resultCount));
+                break;
+            }
         }
+        popResults(body.size());
+        return statements;
+    }
+
+    private void pushCondition(Expression condition) {
+        if (conditionCount == conditions.length) {
+            conditions = Arrays.copyOf(conditions, conditionCount * 2);
+        }
+        conditions[conditionCount++] = condition;
+    }
 
-        return leftExpressionType == rightExpressionType;
+    private Expression popCondition() {
+        Expression condition = conditions[--conditionCount];
+        conditions[conditionCount] = null;
+        return condition;
     }
 
-    private void enterScope(int scope) {
-        variableTypes.insert(scope, new HashMap<>());
-        variableValues.insert(scope, new HashMap<>());
+    private void enterScope() {
+        variableTypes.enterScope();
+    }
+
+    // The scope of the globals, which starts with the variables of the prelude
+    private void enterGlobalScope() {
+        variableTypes.enterScope();
+        for (int i = 0; i < prelude.size(); i++) {
+            int symbol = prelude.getSymbol(i);
+            variableTypes.put(symbol, prelude.getType(symbol));
+        }
     }
 
-    private void exitScope(int scope) {
-        variableTypes.delete(scope);
-        variableValues.delete(scope);
+    private void exitScope() {
+        variableTypes.exitScope();
     }
 }
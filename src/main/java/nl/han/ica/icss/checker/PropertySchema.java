@@ -0,0 +1,147 @@
+package nl.han.ica.icss.checker;
+
+import nl.han.ica.icss.ast.types.ExpressionType;
+import nl.han.ica.icss.symbols.Symbols;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * The CSS properties the checker allows, together with the expression types every property accepts.
+ *
+ * The accepted types of a property are stored as a bit mask at the symbol id of the property name, so
+ * validating a declaration is one array lookup. A schema never changes after it is loaded and can be shared
+ * by any number of checkers and threads.
+ *
+ * Schemas are read from a text file with one property per line: the name, a colon and the accepted types
+ * separated by whitespace, e.g. {@code width: PIXEL PERCENTAGE}. Lines starting with # are comments.
+ */
+public final class PropertySchema {
+
+    private static final String DEFAULT_RESOURCE = "properties.schema";
+
+    // Bit mask of accepted types (1 << ordinal) for every property symbol id, 0 if the property is unknown
+    private final int[] acceptedTypes;
+
+    private PropertySchema(int[] acceptedTypes) {
+        this.acceptedTypes = acceptedTypes;
+    }
+
+    /**
+     * Returns the schema that is bundled with the compiler
+     * @return the default schema
+     */
+    public static PropertySchema getDefault() {
+        return DefaultHolder.SCHEMA;
+    }
+
+    // Loaded on first use only, and exactly once
+    private static final class DefaultHolder {
+        static final PropertySchema SCHEMA = fromResource(DEFAULT_RESOURCE);
+    }
+
+    /**
+     * Loads a schema from a resource on the class path
+     * @param name the name of the resource
+     * @return the schema
+     */
+    public static PropertySchema fromResource(String name) {
+        InputStream stream = PropertySchema.class.getClassLoader().getResourceAsStream(name);
+        if (stream == null) {
+            throw new IllegalArgumentException("Property schema '" + name + "' not found.");
+        }
+        try (stream) {
+            return load(stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a schema in the text format described above
+     * @param stream the UTF-8 encoded schema, it is not closed
+     * @return the schema
+     * @throws IOException when the stream cannot be read
+     */
+    public static PropertySchema load(InputStream stream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        int[] acceptedTypes = new int[0];
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Line " + lineNumber + " of the property schema has no property name.");
+            }
+            int property = Symbols.intern(line.substring(0, colon).strip());
+            int mask = 0;
+            for (String type : line.substring(colon + 1).strip().split("\\s+")) {
+                if (!type.isEmpty()) {
+                    mask |= 1 << parseType(type, lineNumber).ordinal();
+                }
+            }
+            if (property >= acceptedTypes.length) {
+                acceptedTypes = Arrays.copyOf(acceptedTypes, Math.max(property + 1, acceptedTypes.length * 2));
+            }
+            acceptedTypes[property] = mask;
+        }
+        return new PropertySchema(acceptedTypes);
+    }
+
+    private static ExpressionType parseType(String type, int lineNumber) {
+        try {
+            ExpressionType expressionType = ExpressionType.valueOf(type);
+            if (expressionType != ExpressionType.UNDEFINED && expressionType != ExpressionType.BOOL) {
+                return expressionType;
+            }
+        } catch (IllegalArgumentException ignored) {
+            // Reported below together with the types that are not allowed as a property value
+        }
+        throw new IllegalArgumentException("Line " + lineNumber + " of the property schema has an unknown type '" + type + "'.");
+    }
+
+    /**
+     * Whether the property is in the schema
+     * @param property the symbol id of the property name
+     * @return true if the property is allowed
+     */
+    public boolean isAllowed(int property) {
+        return property < acceptedTypes.length && acceptedTypes[property] != 0;
+    }
+
+    /**
+     * Whether the property accepts a value of the given type
+     * @param property the symbol id of the property name
+     * @param expressionType the type of the value
+     * @return true if the property is allowed and accepts the type
+     */
+    public boolean accepts(int property, ExpressionType expressionType) {
+        return property < acceptedTypes.length && (acceptedTypes[property] & (1 << expressionType.ordinal())) != 0;
+    }
+
+    /**
+     * The types a property accepts
+     * @param property the symbol id of the property name
+     * @return a new set with the accepted types, empty if the property is not in the schema
+     */
+    public EnumSet<ExpressionType> getAcceptedTypes(int property) {
+        EnumSet<ExpressionType> types = EnumSet.noneOf(ExpressionType.class);
+        for (ExpressionType expressionType : ExpressionType.values()) {
+            if (accepts(property, expressionType)) {
+                types.add(expressionType);
+            }
+        }
+        return types;
+    }
+}
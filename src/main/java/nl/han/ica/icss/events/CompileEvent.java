@@ -0,0 +1,65 @@
+package nl.han.ica.icss.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.function.IntSupplier;
+
+/**
+ * A Java Flight Recorder event for compiling a stylesheet, from the source to the CSS or the errors. The phases
+ * of the compile are PhaseEvents within it on the same thread.
+ *
+ * The event is disabled by default, enable it in the recording settings with the name below.
+ */
+@Name("nl.han.ica.icss.Compile")
+@Label("ICSS Compile")
+@Category({"ICSS", "Compiler"})
+@Description("Compiling a stylesheet")
+@Enabled(false)
+@StackTrace(false)
+public class CompileEvent extends Event {
+
+    @Label("Compiler")
+    @Description("The class that compiled the stylesheet")
+    public String compiler;
+
+    @Label("Input Size")
+    @Description("The number of characters in the source")
+    public long inputSize;
+
+    @Label("Output Size")
+    @Description("The number of characters in the CSS, 0 when there are errors")
+    public long outputSize;
+
+    @Label("Nodes")
+    @Description("The number of nodes in the parsed AST, 0 when the compiler doesn't build one")
+    public int nodeCount;
+
+    @Label("Errors")
+    public int errorCount;
+
+    /**
+     * Ends the event and commits it with its fields when it is recorded
+     * @param compiler the class that compiled the stylesheet
+     * @param inputSize the number of characters in the source
+     * @param css the generated CSS, or null when there are errors
+     * @param nodes counts the nodes, only called when the event is recorded
+     * @param errorCount the number of errors
+     */
+    public void end(String compiler, int inputSize, String css, IntSupplier nodes, int errorCount) {
+        end();
+        if (shouldCommit()) {
+            this.compiler = compiler;
+            this.inputSize = inputSize;
+            this.outputSize = css != null ? css.length() : 0;
+            this.nodeCount = nodes.getAsInt();
+            this.errorCount = errorCount;
+            commit();
+        }
+    }
+}
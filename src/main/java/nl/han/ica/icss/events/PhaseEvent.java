@@ -0,0 +1,44 @@
+package nl.han.ica.icss.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Java Flight Recorder event for one phase of a compile, such as building the AST or checking.
+ *
+ * Passes that are fused (see PassManager) take turns on every style rule, so their events all span the fused
+ * traversal and time tells how much of it went to the pass. For the other phases time is the duration.
+ * The event is disabled by default, enable it in the recording settings with the name below.
+ */
+@Name("nl.han.ica.icss.Phase")
+@Label("ICSS Phase")
+@Category({"ICSS", "Compiler"})
+@Description("A phase of compiling a stylesheet")
+@Enabled(false)
+@StackTrace(false)
+public class PhaseEvent extends Event {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Input Size")
+    @Description("The number of characters in the source")
+    public long inputSize;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long time;
+
+    @Label("Nodes")
+    @Description("The number of nodes in the AST after the phase")
+    public int nodeCount;
+
+    @Label("Errors")
+    public int errorCount;
+}
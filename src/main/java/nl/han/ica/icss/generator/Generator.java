@@ -5,6 +5,7 @@ import nl.han.ica.icss.ast.*;
 import nl.han.ica.icss.ast.literals.ColorLiteral;
 import nl.han.ica.icss.ast.literals.PercentageLiteral;
 import nl.han.ica.icss.ast.literals.PixelLiteral;
+import nl.han.ica.icss.ast.literals.ScalarLiteral;
 
 public class Generator {
 	private final int AMOUNT_OF_SPACING = 2;
@@ -13,12 +14,21 @@ public class Generator {
 		StringBuilder builder = new StringBuilder();
 		ASTNode root = ast.root;
         for (ASTNode child : root.getChildren()) {
-        	builder.append(generateStylerule((Stylerule) child));
-        	builder.append("\n\n");
+        	generate((Stylerule) child, builder);
 		}
 		return builder.toString();
 	}
 
+	/**
+	 * Appends the CSS of one transformed style rule
+	 * @param stylerule the style rule, without variables and if clauses
+	 * @param builder the builder to append to
+	 */
+	public void generate(Stylerule stylerule, StringBuilder builder) {
+		builder.append(generateStylerule(stylerule));
+		builder.append("\n\n");
+	}
+
 	private String generateStylerule(Stylerule stylerule) {
 		StringBuilder builder = new StringBuilder();
 		for (Selector selector : stylerule.selectors) {
@@ -44,21 +54,21 @@ public class Generator {
 		builder.append(": ");
 		// Expression of declaration should after transform always be a literal, if not it will not add the propery value.
 		if (declaration.expression instanceof Literal) {
-			builder.append(getPropertyValue(declaration.expression));
+			appendPropertyValue(builder, declaration.expression);
 			builder.append(";");
 		}
 		return builder.toString();
 	}
 
-	private String getPropertyValue(Expression expression) {
+	private void appendPropertyValue(StringBuilder builder, Expression expression) {
 		if (expression instanceof ColorLiteral) {
-			return ((ColorLiteral) expression).value;
+			ColorLiteral.appendHex(builder, ((ColorLiteral) expression).value);
 		} else if (expression instanceof PixelLiteral) {
-			return "" + ((PixelLiteral) expression).value + "px";
+			builder.append(((PixelLiteral) expression).value).append("px");
 		} else if (expression instanceof PercentageLiteral) {
-			return "" + ((PercentageLiteral) expression).value + "%";
-		} else {
-			return "";
+			builder.append(((PercentageLiteral) expression).value).append("%");
+		} else if (expression instanceof ScalarLiteral) {
+			builder.append(((ScalarLiteral) expression).value);
 		}
 	}
 }
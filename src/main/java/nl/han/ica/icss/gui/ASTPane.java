@@ -1,18 +1,33 @@
 package nl.han.ica.icss.gui;
 
 import javafx.geometry.Insets;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import nl.han.ica.icss.ast.AST;
 import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.ASTVisitor;
+import nl.han.ica.icss.ast.ASTWalker;
+
+import java.util.Arrays;
 
 public class ASTPane extends BorderPane {
 
+    // Trees up to this number of nodes are shown fully expanded, larger ones only show their style rules
+    private final static int expandedNodeLimit = 2000;
+
     private TreeView<ASTNode> content;
     private Label title;
+    private TextField searchField;
+    private AST ast;
+    // Preorder number of the error that was found last, the search continues after it
+    private int lastFound = -1;
 
     public ASTPane () {
 		super();
@@ -38,8 +53,18 @@ public class ASTPane extends BorderPane {
         });
 		title.setPadding(new Insets(5, 5, 5, 5));
 
+        searchField = new TextField();
+        searchField.setPromptText("Find error");
+        searchField.setOnAction(e -> findNextError());
+        Button nextButton = new Button("Next error");
+        nextButton.setOnAction(e -> findNextError());
+        HBox.setHgrow(searchField, Priority.ALWAYS);
+        HBox search = new HBox(5, searchField, nextButton);
+        search.setPadding(new Insets(5, 5, 5, 5));
+
 		setTop(title);
 		setCenter(content);
+        setBottom(search);
 	    setMinWidth(200);
         setPrefWidth(400);
 	}
@@ -48,16 +73,105 @@ public class ASTPane extends BorderPane {
      * @param ast
      */
     public void update(AST ast) {
-        content.setRoot(astNodeToTreeItem(ast.root));
+        this.ast = ast;
+        lastFound = -1;
+        LazyTreeItem root = new LazyTreeItem(ast.root);
+        root.setExpanded(true);
+        if (countNodes(ast.root) <= expandedNodeLimit) {
+            expandAll(root);
+        }
+        content.setRoot(root);
     }
-    private TreeItem<ASTNode> astNodeToTreeItem(ASTNode astNode) {
 
-        TreeItem<ASTNode> tvNode = new TreeItem<ASTNode>(astNode);
-        tvNode.setExpanded(true);
+    private static int countNodes(ASTNode root) {
+        int[] count = {0};
+        new ASTWalker().walk(root, new ASTVisitor<>() {
+            @Override
+            public Boolean visitNode(ASTNode node) {
+                return ++count[0] <= expandedNodeLimit;
+            }
+        }, null);
+        return count[0];
+    }
 
-        for(ASTNode child : astNode.getChildren()) {
-            tvNode.getChildren().add(astNodeToTreeItem(child));
+    private static void expandAll(TreeItem<ASTNode> item) {
+        item.setExpanded(true);
+        for (TreeItem<ASTNode> child : item.getChildren()) {
+            expandAll(child);
+        }
+    }
+
+    /*
+     * Selects the next node with an error whose label or error contains the search text. The AST is searched
+     * directly, only the items on the path to the node that is found are created.
+     */
+    private void findNextError() {
+        if (ast == null || ast.root == null) {
+            return;
+        }
+        String query = searchField.getText().trim().toLowerCase();
+        int[] path = findError(ast.root, query, lastFound);
+        if (path == null && lastFound >= 0) {
+            // Start over from the top
+            path = findError(ast.root, query, -1);
+        }
+        if (path == null) {
+            return;
         }
-        return tvNode;
+        TreeItem<ASTNode> item = content.getRoot();
+        for (int i = 1; i < path.length; i++) {
+            item.setExpanded(true);
+            item = item.getChildren().get(path[i]);
+        }
+        content.getSelectionModel().select(item);
+        content.scrollTo(content.getRow(item));
+    }
+
+    /*
+     * Returns the path to the first matching node after the given preorder number, as child indexes below the
+     * root (path[0] is the preorder number of the node), or null when there is none
+     */
+    private int[] findError(ASTNode root, String query, int after) {
+        ASTNode[] nodes = new ASTNode[16];
+        int[] nextChild = new int[16];
+        nodes[0] = root;
+        int depth = 1;
+        int order = 0;
+        if (after < order && matches(root, query)) {
+            lastFound = order;
+            return new int[] {order};
+        }
+        while (depth > 0) {
+            ASTNode parent = nodes[depth - 1];
+            int index = nextChild[depth - 1]++;
+            if (index == parent.getChildCount()) {
+                depth--;
+                continue;
+            }
+            ASTNode child = parent.getChild(index);
+            order++;
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                nextChild = Arrays.copyOf(nextChild, depth * 2);
+            }
+            nodes[depth] = child;
+            nextChild[depth++] = 0;
+            if (order > after && matches(child, query)) {
+                lastFound = order;
+                int[] path = new int[depth];
+                path[0] = order;
+                for (int i = 1; i < depth; i++) {
+                    path[i] = nextChild[i - 1] - 1;
+                }
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(ASTNode node, String query) {
+        return node.hasError() && (query.isEmpty()
+                || node.getNodeLabel().toLowerCase().contains(query)
+                || node.getError().description.toLowerCase().contains(query));
     }
 }
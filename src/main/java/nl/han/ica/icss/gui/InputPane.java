@@ -6,6 +6,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.stream.Collectors;
 
+import javafx.beans.value.ObservableValue;
 import javafx.geometry.Insets;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.control.TextArea;
@@ -13,7 +14,11 @@ import javafx.scene.control.Label;
 
 @SuppressWarnings("restriction")
 public class InputPane extends BorderPane {
+	// Larger input is shown read-only in a RopeView, a TextArea can't handle it
+	private final static int editableLimit = 1 << 20;
+
 	private TextArea content;
+	private RopeView largeContent;
 	private Label title;
 	
 	public InputPane() {
@@ -27,7 +32,22 @@ public class InputPane extends BorderPane {
 		this.setCenter(content);
 	}
 	public void setText(String text) {
-		this.content.setText(text);
+		if (text.length() > editableLimit) {
+			if (largeContent == null) {
+				largeContent = new RopeView();
+			}
+			largeContent.setText(text);
+			content.clear();
+			title.setText("Input (ICSS, read-only because of its size):");
+			setCenter(largeContent);
+		} else {
+			this.content.setText(text);
+			if (largeContent != null) {
+				largeContent.setText("");
+				title.setText("Input (ICSS):");
+				setCenter(content);
+			}
+		}
 	}
 	public void setText(File file) {
 		try {
@@ -37,6 +57,10 @@ public class InputPane extends BorderPane {
 		}
 	}
 	public String getText() {
-		return content.getText();
+		return getCenter() == largeContent ? largeContent.getText() : content.getText();
+	}
+	// Changes with every edit, for the live mode
+	public ObservableValue<String> textProperty() {
+		return content.textProperty();
 	}
 }
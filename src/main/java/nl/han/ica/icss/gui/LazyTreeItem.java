@@ -0,0 +1,43 @@
+package nl.han.ica.icss.gui;
+
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+import nl.han.ica.icss.ast.ASTNode;
+
+/**
+ * A tree item for an AST node that creates the items of its children the first time they are asked for, which is
+ * when it is expanded. A large AST only gets items for the part that is shown.
+ */
+public class LazyTreeItem extends TreeItem<ASTNode> {
+
+    private boolean childrenCreated;
+
+    public LazyTreeItem(ASTNode node) {
+        super(node);
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return getValue().getChildCount() == 0;
+    }
+
+    @Override
+    public ObservableList<TreeItem<ASTNode>> getChildren() {
+        if (!childrenCreated) {
+            childrenCreated = true;
+            ASTNode node = getValue();
+            int count = node.getChildCount();
+            TreeItem<ASTNode>[] children = newArray(count);
+            for (int i = 0; i < count; i++) {
+                children[i] = new LazyTreeItem(node.getChild(i));
+            }
+            super.getChildren().setAll(children);
+        }
+        return super.getChildren();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TreeItem<ASTNode>[] newArray(int length) {
+        return (TreeItem<ASTNode>[]) new TreeItem<?>[length];
+    }
+}
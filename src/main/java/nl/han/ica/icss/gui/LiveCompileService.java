@@ -0,0 +1,76 @@
+package nl.han.ica.icss.gui;
+
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+import nl.han.ica.icss.CancellationToken;
+import nl.han.ica.icss.Pipeline;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compiles the input on a background thread for the live mode of the GUI.
+ *
+ * Every call to compile supersedes the compile that is running: the service is restarted, which cancels the
+ * running task. A cancelled task stops at the next style rule (see CancellationToken) and its result is never
+ * published, so the succeeded handler only sees the result of the latest input, on the JavaFX application thread.
+ */
+public class LiveCompileService extends Service<LiveCompileService.Result> {
+
+    private static final ExecutorService compileThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "icss-live-compile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static final class Result {
+        // The pipeline that compiled the input, with its ASTs and errors
+        public final Pipeline pipeline;
+        // The generated CSS, or null when there are errors
+        public final String output;
+
+        Result(Pipeline pipeline, String output) {
+            this.pipeline = pipeline;
+            this.output = output;
+        }
+    }
+
+    private String source = "";
+
+    public LiveCompileService() {
+        setExecutor(compileThread);
+    }
+
+    /**
+     * Starts compiling the source, cancelling the compile of an earlier source
+     * @param source the ICSS source
+     */
+    public void compile(String source) {
+        this.source = source;
+        restart();
+    }
+
+    @Override
+    protected Task<Result> createTask() {
+        String input = source;
+        CancellationToken cancellation = new CancellationToken();
+        return new Task<>() {
+            @Override
+            protected Result call() {
+                Pipeline pipeline = new Pipeline();
+                pipeline.setProfiling(true);
+                pipeline.setCancellation(cancellation);
+                pipeline.parseString(input);
+                if (isCancelled() || !pipeline.isParsed()) {
+                    return new Result(pipeline, null);
+                }
+                return new Result(pipeline, pipeline.compile());
+            }
+
+            @Override
+            protected void cancelled() {
+                cancellation.cancel();
+            }
+        };
+    }
+}
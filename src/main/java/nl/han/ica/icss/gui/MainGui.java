@@ -2,6 +2,7 @@ package nl.han.ica.icss.gui;
 
 import com.google.common.io.Resources;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
@@ -13,6 +14,7 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import nl.han.ica.icss.Pipeline;
 
 import java.io.File;
@@ -37,12 +39,19 @@ public class MainGui extends Application {
     private ASTPane astPane;
     private OutputPane outputPane;
     private FeedbackPane feedbackPane;
+    private PerformancePane performancePane;
 
     //Toolbar buttons
     private Button parseButton;
     private Button checkButton;
     private Button transformButton;
     private Button generateButton;
+    private CheckBox liveCheckBox;
+
+    //Live mode: edits are compiled in the background once typing pauses
+    private final static Duration liveDelay = Duration.millis(300);
+    private PauseTransition liveDebounce;
+    private LiveCompileService liveCompile;
 
     //Model
     private Pipeline pipeline;
@@ -52,6 +61,7 @@ public class MainGui extends Application {
     public void start(Stage stage) {
         //Setup pipeline
         pipeline = new Pipeline();
+        pipeline.setProfiling(true);
 
         //Setup UI
         stage.setTitle(title);
@@ -60,6 +70,7 @@ public class MainGui extends Application {
         astPane = new ASTPane();
         outputPane = new OutputPane();
         feedbackPane = new FeedbackPane();
+        performancePane = new PerformancePane();
 
         //Reference for the callbacks
         final MainGui me = this;
@@ -95,6 +106,27 @@ public class MainGui extends Application {
             }
         });
 
+        liveCheckBox = new CheckBox("Live");
+        liveCheckBox.setPadding(new Insets(4, 0, 0, 10));
+        liveCompile = new LiveCompileService();
+        liveCompile.setOnSucceeded(e -> me.showLiveResult(liveCompile.getValue()));
+        liveCompile.setOnFailed(e -> feedbackPane.addLine(liveCompile.getException().toString()));
+        liveDebounce = new PauseTransition(liveDelay);
+        liveDebounce.setOnFinished(e -> liveCompile.compile(inputPane.getText()));
+        inputPane.textProperty().addListener((observable, oldText, newText) -> {
+            if (liveCheckBox.isSelected()) {
+                liveDebounce.playFromStart();
+            }
+        });
+        liveCheckBox.selectedProperty().addListener((observable, wasSelected, selected) -> {
+            if (selected) {
+                liveCompile.compile(inputPane.getText());
+            } else {
+                liveDebounce.stop();
+                liveCompile.cancel();
+            }
+        });
+
         //Create menus
         MenuBar menuBar = new MenuBar();
 
@@ -167,13 +199,15 @@ public class MainGui extends Application {
         //Toolbar
         HBox toolbar = new HBox();
         toolbar.setPadding(new Insets(5, 5, 5, 5));
-        toolbar.getChildren().addAll(new Label("Pipeline: "), parseButton, checkButton, transformButton, generateButton);
+        toolbar.getChildren().addAll(new Label("Pipeline: "), parseButton, checkButton, transformButton, generateButton, liveCheckBox);
         updateToolbar();
 
         BorderPane bottom = new BorderPane();
         bottom.setPadding(new Insets(10, 10, 10, 10));
         bottom.setTop(toolbar);
-        bottom.setCenter(feedbackPane);
+        TabPane bottomTabs = new TabPane(new Tab("Feedback", feedbackPane), new Tab("Performance", performancePane));
+        bottomTabs.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
+        bottom.setCenter(bottomTabs);
 
         main.setTop(menuBar);
         main.setCenter(center);
@@ -202,6 +236,7 @@ public class MainGui extends Application {
             feedbackPane.addLine("Parsing succeeded");
         }
         astPane.update(pipeline.getAST());
+        performancePane.update(pipeline);
         updateToolbar();
     }
 
@@ -216,6 +251,7 @@ public class MainGui extends Application {
             }
         }
         astPane.update(pipeline.getAST());
+        performancePane.update(pipeline);
         updateToolbar();
     }
 
@@ -227,6 +263,7 @@ public class MainGui extends Application {
            feedbackPane.addLine("Transformation succeeded");
        }
        astPane.update(pipeline.getAST());
+       performancePane.update(pipeline);
        updateToolbar();
     }
 
@@ -235,6 +272,25 @@ public class MainGui extends Application {
         feedbackPane.addLine("Generating output...");
         outputPane.setText(pipeline.generate());
         feedbackPane.addLine("Generating succeeded");
+        performancePane.addRun(pipeline);
+        updateToolbar();
+    }
+
+    // Publishes the compile of the latest input, the service doesn't report superseded compiles
+    private void showLiveResult(LiveCompileService.Result result) {
+        pipeline = result.pipeline;
+        feedbackPane.clear();
+        for (String e : pipeline.getErrors()) {
+            feedbackPane.addLine(e);
+        }
+        if (result.output != null) {
+            feedbackPane.addLine("Compiling succeeded");
+            outputPane.setText(result.output);
+        }
+        if (pipeline.getAST() != null) {
+            astPane.update(pipeline.getAST());
+        }
+        performancePane.addRun(pipeline);
         updateToolbar();
     }
 
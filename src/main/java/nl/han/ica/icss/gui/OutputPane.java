@@ -2,18 +2,20 @@ package nl.han.ica.icss.gui;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
 import javafx.geometry.Insets;
 import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
 import javafx.scene.layout.BorderPane;
 
 @SuppressWarnings("restriction")
 public class OutputPane extends BorderPane {
 
 	private Label title;
-	private TextArea content;
+	// The generated CSS can be megabytes, the view only renders the visible lines
+	private RopeView content;
 
 	public OutputPane () {
 		super();
@@ -21,8 +23,7 @@ public class OutputPane extends BorderPane {
 		title = new Label("Output (CSS):");
 		title.setPadding(new Insets(5, 5, 5, 5));
 
-		content = new TextArea();
-		content.setEditable(false);
+		content = new RopeView();
 
 		setTop(title);
 		setCenter(content);
@@ -30,14 +31,16 @@ public class OutputPane extends BorderPane {
 	public void setText(String text) {
 		content.setText(text);
 	}
+	// Adds output as it is generated
+	public void appendText(CharSequence text) {
+		content.appendText(text);
+	}
 	public String getText() {
 		return content.getText();
 	}
 	public void writeToFile(File file) {
-		try {
-			PrintStream out = new PrintStream(new FileOutputStream(file));
-			out.print(this.getText());
-			out.close();
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(file), Charset.defaultCharset())) {
+			content.writeTo(out);
 		} catch(Exception exception) {
 			System.err.println(exception);
 		}
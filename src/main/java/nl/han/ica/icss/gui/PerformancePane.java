@@ -0,0 +1,125 @@
+package nl.han.ica.icss.gui;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.geometry.Insets;
+import javafx.scene.chart.CategoryAxis;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.StackedBarChart;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.Label;
+import javafx.scene.control.SplitPane;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTFootprint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shows the time and allocated bytes of every phase of the pipeline, the size of its ASTs and a chart of the
+ * time per phase over the last runs.
+ */
+public class PerformancePane extends BorderPane {
+
+    private final static int historyLength = 20;
+
+    private final Label summary;
+    private final TableView<String[]> phases;
+    private final StackedBarChart<String, Number> history;
+    private final LinkedHashMap<String, XYChart.Series<String, Number>> historySeries = new LinkedHashMap<>();
+    private int runCount;
+
+    public PerformancePane() {
+        super();
+
+        summary = new Label();
+        summary.setPadding(new Insets(5, 5, 5, 5));
+
+        phases = new TableView<>();
+        phases.getColumns().add(column("Phase", 0));
+        phases.getColumns().add(column("Time (ms)", 1));
+        phases.getColumns().add(column("Allocated (KB)", 2));
+        phases.getColumns().add(column("Peak heap (KB)", 3));
+        phases.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        CategoryAxis runAxis = new CategoryAxis();
+        runAxis.setLabel("Run");
+        NumberAxis timeAxis = new NumberAxis();
+        timeAxis.setLabel("ms");
+        history = new StackedBarChart<>(runAxis, timeAxis);
+        history.setAnimated(false);
+
+        SplitPane center = new SplitPane(phases, history);
+        setTop(summary);
+        setCenter(center);
+    }
+
+    private static TableColumn<String[], String> column(String title, int index) {
+        TableColumn<String[], String> column = new TableColumn<>(title);
+        column.setCellValueFactory(row -> new ReadOnlyObjectWrapper<>(row.getValue()[index]));
+        column.setSortable(false);
+        return column;
+    }
+
+    /**
+     * Shows the phases that ran in the pipeline since it last parsed
+     * @param pipeline the pipeline
+     */
+    public void update(Pipeline pipeline) {
+        LinkedHashMap<String, Long> timings = pipeline.getPhaseTimings();
+        LinkedHashMap<String, Long> allocations = pipeline.getPhaseAllocations();
+        LinkedHashMap<String, Long> peaks = pipeline.getPhasePeakHeap();
+        phases.getItems().clear();
+        long totalNanos = 0;
+        long totalBytes = 0;
+        long peakBytes = 0;
+        for (Map.Entry<String, Long> timing : timings.entrySet()) {
+            Long bytes = allocations.get(timing.getKey());
+            Long peak = peaks.get(timing.getKey());
+            phases.getItems().add(new String[] {timing.getKey(), String.format("%.3f", timing.getValue() / 1e6),
+                    bytes != null ? String.format("%,d", bytes / 1024) : "-",
+                    peak != null ? String.format("%,d", peak / 1024) : "-"});
+            totalNanos += timing.getValue();
+            totalBytes += bytes != null ? bytes : 0;
+            peakBytes = Math.max(peakBytes, peak != null ? peak : 0);
+        }
+        phases.getItems().add(new String[] {"total", String.format("%.3f", totalNanos / 1e6),
+                allocations.isEmpty() ? "-" : String.format("%,d", totalBytes / 1024),
+                peaks.isEmpty() ? "-" : String.format("%,d", peakBytes / 1024)});
+
+        summary.setText("Nodes: " + countNodes(pipeline.getParsedAST()) + " parsed ("
+                + String.format("%,d", ASTFootprint.of(pipeline.getParsedAST()).getRetainedSize() / 1024)
+                + " KB), " + countNodes(pipeline.getTransformedAST()) + " transformed");
+    }
+
+    /**
+     * Shows the phases of a finished run and adds them to the history
+     * @param pipeline the pipeline of the run
+     */
+    public void addRun(Pipeline pipeline) {
+        update(pipeline);
+        String run = Integer.toString(++runCount);
+        for (Map.Entry<String, Long> timing : pipeline.getPhaseTimings().entrySet()) {
+            XYChart.Series<String, Number> series = historySeries.computeIfAbsent(timing.getKey(), name -> {
+                XYChart.Series<String, Number> newSeries = new XYChart.Series<>();
+                newSeries.setName(name);
+                history.getData().add(newSeries);
+                return newSeries;
+            });
+            series.getData().add(new XYChart.Data<>(run, timing.getValue() / 1e6));
+        }
+        // Keep the last runs only
+        String oldest = Integer.toString(runCount - historyLength);
+        for (XYChart.Series<String, Number> series : historySeries.values()) {
+            series.getData().removeIf(data -> data.getXValue().equals(oldest));
+        }
+        ((CategoryAxis) history.getXAxis()).getCategories().remove(oldest);
+    }
+
+    private static int countNodes(AST ast) {
+        return ast != null ? ast.countNodes() : 0;
+    }
+}
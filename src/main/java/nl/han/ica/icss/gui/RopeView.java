@@ -0,0 +1,89 @@
+package nl.han.ica.icss.gui;
+
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only view of a large text. The text is kept in a TextRope and the view is a ListView of line numbers,
+ * which only creates cells for the lines that are visible. Text can be appended while it is shown, for output
+ * that is produced a piece at a time.
+ */
+public class RopeView extends ListView<Integer> {
+
+    private final TextRope rope = new TextRope();
+    private final Lines lines = new Lines();
+
+    // The line numbers of the rope, without a list of them in memory
+    private class Lines extends ObservableListBase<Integer> {
+        private int size = 1;
+
+        @Override
+        public Integer get(int index) {
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        void update() {
+            int newSize = rope.getLineCount();
+            beginChange();
+            // The last line can have grown, so it is replaced along with the lines that were added
+            nextReplace(size - 1, newSize, List.of(size - 1));
+            size = newSize;
+            endChange();
+        }
+
+        void reset() {
+            int oldSize = size;
+            size = rope.getLineCount();
+            beginChange();
+            nextRemove(0, Collections.nCopies(oldSize, 0));
+            nextAdd(0, size);
+            endChange();
+        }
+    }
+
+    public RopeView() {
+        setItems(lines);
+        getStyleClass().add("rope-view");
+        setCellFactory(listView -> new ListCell<>() {
+            @Override
+            protected void updateItem(Integer line, boolean empty) {
+                super.updateItem(line, empty);
+                setText(empty || line == null ? null : rope.getLine(line));
+            }
+        });
+    }
+
+    public void setText(String text) {
+        rope.clear();
+        rope.append(text);
+        lines.reset();
+    }
+
+    public void appendText(CharSequence text) {
+        rope.append(text);
+        lines.update();
+    }
+
+    public String getText() {
+        return rope.toString();
+    }
+
+    public int getLength() {
+        return rope.length();
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        rope.writeTo(writer);
+    }
+}
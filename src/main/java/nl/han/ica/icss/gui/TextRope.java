@@ -0,0 +1,87 @@
+package nl.han.ica.icss.gui;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Text kept in fixed-size chunks with an index of where every line starts, for showing large documents.
+ * Appending copies only the appended text and getting a line copies only that line, however large the text is.
+ */
+public class TextRope {
+
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    private final ArrayList<char[]> chunks = new ArrayList<>();
+    private int length;
+    // Offsets where the lines start, the first line starts at 0
+    private int[] lineStarts = {0};
+    private int lineCount = 1;
+
+    public int length() {
+        return length;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public void clear() {
+        chunks.clear();
+        length = 0;
+        lineStarts = new int[] {0};
+        lineCount = 1;
+    }
+
+    public void append(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            int offset = length % CHUNK_SIZE;
+            if (offset == 0) {
+                chunks.add(new char[CHUNK_SIZE]);
+            }
+            char c = text.charAt(i);
+            chunks.get(chunks.size() - 1)[offset] = c;
+            length++;
+            if (c == '\n') {
+                if (lineCount == lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                }
+                lineStarts[lineCount++] = length;
+            }
+        }
+    }
+
+    // The text of a line without its line break
+    public String getLine(int line) {
+        int start = lineStarts[line];
+        int end = line + 1 < lineCount ? lineStarts[line + 1] - 1 : length;
+        return substring(start, end);
+    }
+
+    public String substring(int start, int end) {
+        StringBuilder builder = new StringBuilder(end - start);
+        appendTo(builder, start, end);
+        return builder.toString();
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        for (int i = 0; i < chunks.size(); i++) {
+            writer.write(chunks.get(i), 0, Math.min(CHUNK_SIZE, length - i * CHUNK_SIZE));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length);
+    }
+
+    private void appendTo(StringBuilder builder, int start, int end) {
+        while (start < end) {
+            int offset = start % CHUNK_SIZE;
+            int count = Math.min(end - start, CHUNK_SIZE - offset);
+            builder.append(chunks.get(start / CHUNK_SIZE), offset, count);
+            start += count;
+        }
+    }
+}
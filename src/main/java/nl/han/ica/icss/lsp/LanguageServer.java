@@ -0,0 +1,250 @@
+package nl.han.ica.icss.lsp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import nl.han.ica.icss.Diagnostic;
+import nl.han.ica.icss.IncrementalCompiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A language server for ICSS over stdin and stdout.
+ *
+ * It keeps the open documents in memory and applies the edits of didChange to them. After every change the
+ * document is analysed on a background thread by an IncrementalCompiler per document, which only reparses and
+ * rechecks the top-level statements that changed (and the style rules whose global variables changed), and the
+ * errors are published as diagnostics. A change that comes in while the previous version is being analysed
+ * cancels that analysis, so only the diagnostics of the latest version are published.
+ *
+ * Every version is parsed, so the names that are typed one character at a time are interned one prefix at a time,
+ * and Symbols keeps them until the server exits. That is a few bytes per prefix, which an editing session doesn't
+ * get far with, but a server that runs for days does grow.
+ */
+public class LanguageServer {
+
+    // Error codes of the protocol
+    private static final int PARSE_ERROR = -32700;
+    private static final int INVALID_REQUEST = -32600;
+    private static final int METHOD_NOT_FOUND = -32601;
+    private static final int INVALID_PARAMS = -32602;
+    private static final int SEVERITY_ERROR = 1;
+    private static final int SYNC_INCREMENTAL = 2;
+
+    private final MessageConnection connection;
+    private final HashMap<String, TextDocument> documents = new HashMap<>();
+    // Used by the analysis thread only
+    private final HashMap<String, IncrementalCompiler> compilers = new HashMap<>();
+    private final ExecutorService analysis = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "icss-analysis");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean shutdown;
+
+    public LanguageServer(InputStream in, OutputStream out) {
+        connection = new MessageConnection(in, out);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int exitCode = new LanguageServer(System.in, System.out).run();
+        System.exit(exitCode);
+    }
+
+    /**
+     * Handles messages until the client sends exit or closes the input. A message that can't be read or handled
+     * gets an error response when it is a request and is skipped otherwise, the server goes on with the next one.
+     * @return the exit code, 0 when the client asked to shut down first
+     * @throws IOException when reading or writing a message fails
+     */
+    public int run() throws IOException {
+        try {
+            while (true) {
+                JsonObject message;
+                try {
+                    message = connection.read();
+                } catch (MessageConnection.MalformedMessageException e) {
+                    // The id of the request is unknown, so the response has none
+                    connection.respondWithError(JsonNull.INSTANCE, PARSE_ERROR, e.getMessage());
+                    continue;
+                }
+                if (message == null) {
+                    break;
+                }
+                JsonElement id = message.get("id");
+                try {
+                    JsonElement method = message.get("method");
+                    if (method != null && !(method.isJsonPrimitive() && method.getAsJsonPrimitive().isString())) {
+                        if (id != null) {
+                            connection.respondWithError(id, INVALID_REQUEST, "The method is not a string");
+                        }
+                        continue;
+                    }
+                    if (method != null && method.getAsString().equals("exit")) {
+                        break;
+                    }
+                    handle(message, method != null ? method.getAsString() : null);
+                } catch (RuntimeException e) {
+                    // Gson throws these for missing or mistyped params
+                    if (id != null) {
+                        connection.respondWithError(id, INVALID_PARAMS, "Invalid params: " + e);
+                    }
+                }
+            }
+        } finally {
+            analysis.shutdownNow();
+        }
+        return shutdown ? 0 : 1;
+    }
+
+    private void handle(JsonObject message, String method) throws IOException {
+        JsonElement id = message.get("id");
+        JsonObject params = message.has("params") ? message.getAsJsonObject("params") : new JsonObject();
+        if (method == null) {
+            // A response to a request of the server, which sends none
+            return;
+        }
+        switch (method) {
+            case "initialize":
+                connection.respond(id, capabilities());
+                break;
+            case "shutdown":
+                shutdown = true;
+                connection.respond(id, null);
+                break;
+            case "textDocument/didOpen": {
+                JsonObject document = params.getAsJsonObject("textDocument");
+                String uri = document.get("uri").getAsString();
+                TextDocument textDocument = new TextDocument(document.get("text").getAsString(),
+                        document.get("version").getAsInt());
+                synchronized (documents) {
+                    documents.put(uri, textDocument);
+                }
+                analyse(uri);
+                break;
+            }
+            case "textDocument/didChange": {
+                JsonObject document = params.getAsJsonObject("textDocument");
+                String uri = document.get("uri").getAsString();
+                int version = document.get("version").getAsInt();
+                synchronized (documents) {
+                    TextDocument textDocument = documents.get(uri);
+                    if (textDocument == null) {
+                        return;
+                    }
+                    // The changes go to a copy first, so a change that can't be applied leaves the document as it was
+                    TextDocument edited = new TextDocument(textDocument.getText(), version);
+                    for (JsonElement change : params.getAsJsonArray("contentChanges")) {
+                        JsonObject contentChange = change.getAsJsonObject();
+                        edited.change(contentChange.has("range") ? contentChange.getAsJsonObject("range") : null,
+                                contentChange.get("text").getAsString(), version);
+                    }
+                    textDocument.setText(edited.getText(), version);
+                }
+                analyse(uri);
+                break;
+            }
+            case "textDocument/didClose": {
+                String uri = params.getAsJsonObject("textDocument").get("uri").getAsString();
+                synchronized (documents) {
+                    documents.remove(uri);
+                }
+                analysis.execute(() -> compilers.remove(uri));
+                publish(uri, null, new JsonArray());
+                break;
+            }
+            case "$/cancelRequest":
+                // Requests are answered as soon as they are read, so there is nothing left to cancel
+                break;
+            default:
+                if (id != null) {
+                    connection.respondWithError(id, METHOD_NOT_FOUND, "Unknown method " + method);
+                }
+        }
+    }
+
+    private JsonObject capabilities() {
+        JsonObject sync = new JsonObject();
+        sync.addProperty("openClose", true);
+        sync.addProperty("change", SYNC_INCREMENTAL);
+        JsonObject capabilities = new JsonObject();
+        capabilities.add("textDocumentSync", sync);
+        JsonObject serverInfo = new JsonObject();
+        serverInfo.addProperty("name", "icss");
+        JsonObject result = new JsonObject();
+        result.add("capabilities", capabilities);
+        result.add("serverInfo", serverInfo);
+        return result;
+    }
+
+    // Analyses the current version of the document, unless a newer version comes in first
+    private void analyse(String uri) {
+        TextDocument document;
+        String text;
+        int version;
+        synchronized (documents) {
+            document = documents.get(uri);
+            text = document.getText();
+            version = document.getVersion();
+        }
+        analysis.execute(() -> {
+            if (isSuperseded(uri, document, version)) {
+                return;
+            }
+            IncrementalCompiler compiler = compilers.computeIfAbsent(uri, key -> new IncrementalCompiler());
+            compiler.compile(text, () -> isSuperseded(uri, document, version));
+            if (compiler.isCancelled()) {
+                return;
+            }
+            JsonArray diagnostics = new JsonArray();
+            synchronized (documents) {
+                if (isSuperseded(uri, document, version)) {
+                    return;
+                }
+                for (Diagnostic error : compiler.getDiagnostics()) {
+                    diagnostics.add(toJson(document, error));
+                }
+            }
+            try {
+                publish(uri, version, diagnostics);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        });
+    }
+
+    private boolean isSuperseded(String uri, TextDocument document, int version) {
+        synchronized (documents) {
+            return documents.get(uri) != document || document.getVersion() != version;
+        }
+    }
+
+    private static JsonObject toJson(TextDocument document, Diagnostic error) {
+        JsonObject range = new JsonObject();
+        range.add("start", document.positionOf(error.start));
+        range.add("end", document.positionOf(error.end));
+        JsonObject diagnostic = new JsonObject();
+        diagnostic.add("range", range);
+        diagnostic.addProperty("severity", SEVERITY_ERROR);
+        diagnostic.addProperty("source", "icss");
+        diagnostic.addProperty("message", error.message);
+        return diagnostic;
+    }
+
+    private void publish(String uri, Integer version, JsonArray diagnostics) throws IOException {
+        JsonObject params = new JsonObject();
+        params.addProperty("uri", uri);
+        if (version != null) {
+            params.add("version", new JsonPrimitive(version));
+        }
+        params.add("diagnostics", diagnostics);
+        connection.notify("textDocument/publishDiagnostics", params);
+    }
+}
@@ -0,0 +1,135 @@
+package nl.han.ica.icss.lsp;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON-RPC messages framed the way the language server protocol frames them: a Content-Length header,
+ * an empty line and the JSON content. Reading is done by one thread, writing is safe from any thread.
+ */
+public class MessageConnection {
+
+    /**
+     * A message that was read but is not valid JSON-RPC, the connection can go on with the next message
+     */
+    public static class MalformedMessageException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedMessageException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    // Returned by readHeaderLine at the end of the input
+    private static final String END = "\0";
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    public MessageConnection(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Reads the next message
+     * @return the message, or null at the end of the input
+     * @throws MalformedMessageException when the message has no valid Content-Length or is not a JSON object
+     * @throws IOException when reading fails
+     */
+    public JsonObject read() throws IOException {
+        int contentLength = -1;
+        String invalidLength = null;
+        String header;
+        while (!(header = readHeaderLine()).isEmpty()) {
+            if (header.equals(END)) {
+                return null;
+            }
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                String value = header.substring(colon + 1).trim();
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    invalidLength = value;
+                }
+            }
+        }
+        // The rest of the headers has been read, the content can't be found without a length though
+        if (invalidLength != null) {
+            throw new MalformedMessageException("Invalid Content-Length " + invalidLength, null);
+        }
+        if (contentLength < 0) {
+            throw new MalformedMessageException("Message without Content-Length", null);
+        }
+        byte[] content = in.readNBytes(contentLength);
+        if (content.length < contentLength) {
+            return null;
+        }
+        try {
+            return JsonParser.parseString(new String(content, StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new MalformedMessageException("Message is not a JSON object", e);
+        }
+    }
+
+    public void write(JsonObject message) throws IOException {
+        byte[] content = message.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] header = ("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        synchronized (out) {
+            out.write(header);
+            out.write(content);
+            out.flush();
+        }
+    }
+
+    public void respond(JsonElement id, JsonElement result) throws IOException {
+        JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        response.add("id", id);
+        response.add("result", result);
+        write(response);
+    }
+
+    public void respondWithError(JsonElement id, int code, String message) throws IOException {
+        JsonObject error = new JsonObject();
+        error.addProperty("code", code);
+        error.addProperty("message", message);
+        JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        response.add("id", id);
+        response.add("error", error);
+        write(response);
+    }
+
+    public void notify(String method, JsonObject params) throws IOException {
+        JsonObject notification = new JsonObject();
+        notification.addProperty("jsonrpc", "2.0");
+        notification.addProperty("method", method);
+        notification.add("params", params);
+        write(notification);
+    }
+
+    // A header line without its line break, empty for the line that ends the headers, END at the end of the input
+    private String readHeaderLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1) {
+            return END;
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,84 @@
+package nl.han.ica.icss.lsp;
+
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+
+/**
+ * The text of an open document with an index of where its lines start, to convert between the line and character
+ * positions of the protocol and offsets in the text. Characters are UTF-16 code units, as in a Java String.
+ */
+class TextDocument {
+
+    private String text;
+    private int version;
+    private int[] lineStarts;
+    private int lineCount;
+
+    TextDocument(String text, int version) {
+        setText(text, version);
+    }
+
+    String getText() {
+        return text;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    void setText(String text, int version) {
+        this.text = text;
+        this.version = version;
+        lineStarts = new int[16];
+        lineCount = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                if (lineCount == lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                }
+                lineStarts[lineCount++] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Replaces a range of the text
+     * @param range the range as the protocol gives it, or null to replace the whole text
+     * @param newText the text to put in its place
+     * @param version the version of the document after the change
+     */
+    void change(JsonObject range, String newText, int version) {
+        if (range == null) {
+            setText(newText, version);
+            return;
+        }
+        int start = offsetOf(range.getAsJsonObject("start"));
+        int end = Math.max(start, offsetOf(range.getAsJsonObject("end")));
+        setText(text.substring(0, start) + newText + text.substring(end), version);
+    }
+
+    // The offset of a position, a position outside the text is moved to the nearest place in it
+    int offsetOf(JsonObject position) {
+        int line = position.get("line").getAsInt();
+        int character = position.get("character").getAsInt();
+        if (line < 0) {
+            return 0;
+        } else if (line >= lineCount) {
+            return text.length();
+        }
+        int lineEnd = line + 1 < lineCount ? lineStarts[line + 1] - 1 : text.length();
+        return lineStarts[line] + Math.min(Math.max(character, 0), lineEnd - lineStarts[line]);
+    }
+
+    JsonObject positionOf(int offset) {
+        int line = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        if (line < 0) {
+            line = -line - 2;
+        }
+        JsonObject position = new JsonObject();
+        position.addProperty("line", line);
+        position.addProperty("character", offset - lineStarts[line]);
+        return position;
+    }
+}
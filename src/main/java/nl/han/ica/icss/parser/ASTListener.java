@@ -1,10 +1,10 @@
 package nl.han.ica.icss.parser;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
-import nl.han.ica.datastructures.HANStack;
-import nl.han.ica.datastructures.IHANStack;
 import nl.han.ica.icss.ast.*;
 import nl.han.ica.icss.ast.literals.*;
 import nl.han.ica.icss.ast.operations.AddOperation;
@@ -13,9 +13,15 @@ import nl.han.ica.icss.ast.operations.SubtractOperation;
 import nl.han.ica.icss.ast.selectors.ClassSelector;
 import nl.han.ica.icss.ast.selectors.IdSelector;
 import nl.han.ica.icss.ast.selectors.TagSelector;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 /**
  * This class extracts the ICSS Abstract Syntax Tree from the Antlr Parse tree.
+ *
+ * Finished nodes are pushed on a stack. Entering a container (stylesheet, style rule, if or else clause) marks
+ * the top of the stack, so on exit its children are exactly the nodes above that mark, in source order. They are
+ * attached in one go and removed from the stack, which keeps building the AST linear in the size of the input.
  */
 public class ASTListener extends ICSSBaseListener {
 
@@ -23,217 +29,221 @@ public class ASTListener extends ICSSBaseListener {
     private AST ast;
 
     //Use this to keep track of the parent nodes when recursively traversing the ast
-    private IHANStack<ASTNode> currentContainer;
+    private final ArrayList<ASTNode> currentContainer;
+    // Stack size at the moment every open container was entered
+    private int[] frames = new int[16];
+    private int frameCount = 0;
 
-    // Stylesheet node to add style rules to
-    private Stylesheet stylesheet;
+    // Shares structurally equal expressions, see ExpressionTable
+    private final ExpressionTable expressions = new ExpressionTable();
 
-    private ArrayList<ASTNode> stylerules;
+    // Checked every CANCELLATION_INTERVAL parse tree nodes
+    private static final int CANCELLATION_INTERVAL = 256;
+    private BooleanSupplier cancelled = () -> false;
+    private int exitCount;
 
     public ASTListener() {
         ast = new AST();
-        currentContainer = new HANStack<>();
-        stylesheet = new Stylesheet();
-        stylerules = new ArrayList<>();
+        currentContainer = new ArrayList<>();
     }
 
     public AST getAST() {
         return ast;
     }
 
+    // The node that was built last, which is the result when the parse started at a rule other than stylesheet
+    public ASTNode getNode() {
+        return currentContainer.isEmpty() ? null : currentContainer.get(currentContainer.size() - 1);
+    }
+
+    /**
+     * Makes building the AST stop with a ParseCancellationException once it is cancelled
+     * @param cancelled tells whether the AST is no longer needed
+     */
+    public void setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+
     @Override
-    public void exitStylesheet(ICSSParser.StylesheetContext ctx) {
-        ArrayList<ASTNode> variables = getGlobalVariables();
-        while (variables.size() != 0) {
-            stylesheet.addChild(variables.remove(0));
+    public void exitEveryRule(ParserRuleContext ctx) {
+        if (++exitCount % CANCELLATION_INTERVAL == 0 && cancelled.getAsBoolean()) {
+            throw new ParseCancellationException("Building the AST cancelled");
         }
-        while (stylerules.size() != 0) {
-            stylesheet.addChild(stylerules.remove(0));
+    }
+
+    private void push(ASTNode node) {
+        currentContainer.add(node);
+    }
+
+    private ASTNode pop() {
+        // A partial parse can leave a node without its children, which are then missing instead of taken from a parent
+        int size = currentContainer.size();
+        if (size == 0 || (frameCount > 0 && size == frames[frameCount - 1])) {
+            return null;
         }
-        ast.root = stylesheet;
+        return currentContainer.remove(size - 1);
     }
 
-    private ArrayList<ASTNode> getGlobalVariables() {
-        ArrayList<ASTNode> variables = new ArrayList<>();
-        while (currentContainer.peek() != null) {
-            variables.add(currentContainer.pop());
+    private void enterFrame() {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
         }
-        Collections.reverse(variables);
-        return variables;
+        frames[frameCount++] = currentContainer.size();
+    }
+
+    // Attaches the nodes of the innermost frame to the container, removes them from the stack and pushes the container
+    private void exitFrame(ASTNode container) {
+        int start = frameCount > 0 ? frames[--frameCount] : 0;
+        List<ASTNode> children = currentContainer.subList(start, currentContainer.size());
+        container.addChildren(children);
+        children.clear();
+        push(container);
     }
 
     @Override
-    public void exitStylerule(ICSSParser.StyleruleContext ctx) {
-        ArrayList<ASTNode> attributes = new ArrayList<>();
-        // While there's an item on the stack and this item is not an instanceof Selector add to attribute list.
-        while (currentContainer.peek() != null && !(currentContainer.peek() instanceof Selector)) {
-            attributes.add(currentContainer.pop());
-        }
-        Collections.reverse(attributes);
+    public void enterStylesheet(ICSSParser.StylesheetContext ctx) {
+        enterFrame();
+    }
 
-        ArrayList<ASTNode> selectors = new ArrayList<>();
-        // While there's an item on the stack and this item is an instanceof Selector add to selector list.
-        while (currentContainer.peek() != null && (currentContainer.peek() instanceof Selector)) {
-            ASTNode selector = currentContainer.pop();
-            selectors.add(selector);
-        }
-        Collections.reverse(selectors);
+    @Override
+    public void exitStylesheet(ICSSParser.StylesheetContext ctx) {
+        Stylesheet stylesheet = new Stylesheet();
+        exitFrame(stylesheet);
+        ast.root = stylesheet;
+    }
 
-        ASTNode stylerule = new Stylerule();
-        // It can be assumed a style rule always has one selector based on the grammar, so the first element of 'selectors' is present.
+    @Override
+    public void enterStylerule(ICSSParser.StyleruleContext ctx) {
+        enterFrame();
+    }
 
-        while (attributes.size() > 0) {
-            stylerule.addChild(attributes.remove(0));
-        }
-        // Whilst there are still elements in 'selectors' add them to the style rule.
-        while (selectors.size() > 0) {
-            stylerule.addChild(selectors.remove(0));
-        }
-        stylerules.add(stylerule);
+    @Override
+    public void exitStylerule(ICSSParser.StyleruleContext ctx) {
+        // The frame holds the selectors followed by the attributes, Stylerule sorts them out
+        exitFrame(new Stylerule());
     }
 
     @Override
     public void exitDeclaration(ICSSParser.DeclarationContext ctx) {
         ASTNode declaration = new Declaration();
-        ASTNode expression = currentContainer.pop();
-        declaration.addChild(currentContainer.pop());
+        ASTNode expression = pop();
+        declaration.addChild(pop());
         declaration.addChild(expression);
-        currentContainer.push(declaration);
+        push(declaration);
     }
 
     @Override
     public void exitTagSelector(ICSSParser.TagSelectorContext ctx) {
         ASTNode selector = new TagSelector(ctx.getChild(0).getText());
-        currentContainer.push(selector);
+        push(selector);
     }
 
     @Override
     public void exitIdSelector(ICSSParser.IdSelectorContext ctx) {
         ASTNode selector = new IdSelector(ctx.getChild(0).getText());
-        currentContainer.push(selector);
+        push(selector);
     }
 
     @Override
     public void exitClassSelector(ICSSParser.ClassSelectorContext ctx) {
         ASTNode selector = new ClassSelector(ctx.getChild(0).getText());
-        currentContainer.push(selector);
+        push(selector);
     }
 
     @Override
-    public void exitIfClause(ICSSParser.IfClauseContext ctx) {
-        ASTNode elseClause = null;
-        if (currentContainer.peek() instanceof ElseClause) {
-            elseClause = currentContainer.pop();
-        }
-
-        ArrayList<ASTNode> body = new ArrayList<>();
-        // If there is an item on the stack and this item is not an instanceof Expression add it to the body
-        while (currentContainer.peek() != null && !(currentContainer.peek() instanceof Expression)) {
-            body.add(currentContainer.pop());
-        }
-        Collections.reverse(body);
+    public void enterIfClause(ICSSParser.IfClauseContext ctx) {
+        enterFrame();
+    }
 
-        ASTNode conditionalExpression = currentContainer.pop();
-        currentContainer.push(createIfClauseNode(elseClause, body, conditionalExpression));
+    @Override
+    public void exitIfClause(ICSSParser.IfClauseContext ctx) {
+        // The frame holds the condition, the body and the else clause if there is one; IfClause sorts them out
+        exitFrame(new IfClause());
     }
 
-    private ASTNode createIfClauseNode(ASTNode elseClause, ArrayList<ASTNode> body, ASTNode conditionalExpression) {
-        ASTNode ifClause = new IfClause();
-        ifClause.addChild(conditionalExpression);
-        if (elseClause != null) {
-            ifClause.addChild(elseClause);
-        }
-        while (body.size() > 0) {
-            ifClause.addChild(body.remove(0));
-        }
-        return ifClause;
+    @Override
+    public void enterElseClause(ICSSParser.ElseClauseContext ctx) {
+        enterFrame();
     }
 
     @Override
     public void exitElseClause(ICSSParser.ElseClauseContext ctx) {
-        ArrayList<ASTNode> nodes = new ArrayList<>();
-        // An ElseClause contains 3 useless elements in the grammer. By getting the child count and removing three elements provides the correct count of stack items
-        for(int i = 0;i<ctx.getChildCount()-3;i++){
-            nodes.add(currentContainer.pop());
-        }
-        Collections.reverse(nodes);
-        ASTNode node = new ElseClause(nodes);
-        currentContainer.push(node);
+        exitFrame(new ElseClause());
     }
 
     @Override
     public void exitPropertyName(ICSSParser.PropertyNameContext ctx) {
         ASTNode selector = new PropertyName(ctx.getChild(0).getText());
-        currentContainer.push(selector);
+        push(selector);
     }
 
     @Override
     public void exitAdditionSubtraction(ICSSParser.AdditionSubtractionContext ctx) {
-        ASTNode node;
+        Operation node;
         if (ctx.getChild(1).getText().equals("+")) {
             node = new AddOperation();
         } else {
             node = new SubtractOperation();
         }
 
-        ASTNode rightLiteral = currentContainer.pop();
-        node.addChild(currentContainer.pop());
+        ASTNode rightLiteral = pop();
+        node.addChild(pop());
         node.addChild(rightLiteral);
-        currentContainer.push(node);
+        push(expressions.intern(node));
     }
 
     @Override
     public void exitMultiplication(ICSSParser.MultiplicationContext ctx) {
-        ASTNode rightLiteral = currentContainer.pop();
-        ASTNode multiplicationExpression = new MultiplyOperation();
-        multiplicationExpression.addChild(currentContainer.pop());
+        ASTNode rightLiteral = pop();
+        Operation multiplicationExpression = new MultiplyOperation();
+        multiplicationExpression.addChild(pop());
         multiplicationExpression.addChild(rightLiteral);
-        currentContainer.push(multiplicationExpression);
+        push(expressions.intern(multiplicationExpression));
     }
 
     @Override
     public void exitPixelLiteal(ICSSParser.PixelLitealContext ctx) {
-        ASTNode literal = new PixelLiteral(ctx.getChild(0).getText());
-        currentContainer.push(literal);
+        Expression literal = new PixelLiteral(ctx.getChild(0).getText());
+        push(expressions.intern(literal));
     }
 
     @Override
     public void exitPercentageLiteral(ICSSParser.PercentageLiteralContext ctx) {
-        ASTNode literal = new PercentageLiteral(ctx.getChild(0).getText());
-        currentContainer.push(literal);
+        Expression literal = new PercentageLiteral(ctx.getChild(0).getText());
+        push(expressions.intern(literal));
     }
 
     @Override
     public void exitScalarLiteral(ICSSParser.ScalarLiteralContext ctx) {
-        ASTNode literal = new ScalarLiteral(ctx.getChild(0).getText());
-        currentContainer.push(literal);
+        Expression literal = new ScalarLiteral(ctx.getChild(0).getText());
+        push(expressions.intern(literal));
     }
 
     @Override
     public void exitColorLiteral(ICSSParser.ColorLiteralContext ctx) {
-        ASTNode literal = new ColorLiteral(ctx.getChild(0).getText());
-        currentContainer.push(literal);
+        Expression literal = new ColorLiteral(ctx.getChild(0).getText());
+        push(expressions.intern(literal));
     }
 
     @Override
     public void exitBooleanLiteral(ICSSParser.BooleanLiteralContext ctx) {
-        ASTNode literal = new BoolLiteral(ctx.getChild(0).getText());
-        currentContainer.push(literal);
+        Expression literal = new BoolLiteral(ctx.getChild(0).getText());
+        push(expressions.intern(literal));
     }
 
     @Override
     public void exitVariableReference(ICSSParser.VariableReferenceContext ctx) {
-        ASTNode variable = new VariableReference(ctx.getChild(0).getText());
-        currentContainer.push(variable);
+        Expression variable = new VariableReference(ctx.getChild(0).getText());
+        push(expressions.intern(variable));
     }
 
     @Override
     public void exitVariableAssignment(ICSSParser.VariableAssignmentContext ctx) {
         ASTNode variable = new VariableAssignment();
-        ASTNode expression = currentContainer.pop();
-        variable.addChild(currentContainer.pop());
+        ASTNode expression = pop();
+        variable.addChild(pop());
         variable.addChild(expression);
-        currentContainer.push(variable);
+        push(variable);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package nl.han.ica.icss.parser;
+
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Antlr's default error handling, which also stops the parse once it is cancelled. The parser calls sync before
+ * every iteration of a loop in the grammar, such as the next statement of the stylesheet or the next part of a
+ * body, so a long parse notices the cancellation without waiting for the end of the input.
+ */
+public class CancellableErrorStrategy extends DefaultErrorStrategy {
+
+    private final BooleanSupplier cancelled;
+
+    public CancellableErrorStrategy(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    @Override
+    public void sync(Parser recognizer) {
+        if (cancelled.getAsBoolean()) {
+            throw new ParseCancellationException("Parse cancelled");
+        }
+        super.sync(recognizer);
+    }
+}
@@ -0,0 +1,73 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.icss.ast.Expression;
+import nl.han.ica.icss.ast.Operation;
+
+/**
+ * Hash-consing table for the expressions of one parse. Every expression is replaced by the first structurally
+ * equal expression the table has seen, so repeated expressions like {@code ParWidth + 20px} become a single
+ * shared node and the expressions of a stylesheet form a DAG instead of a tree.
+ *
+ * Expressions are interned bottom up, so the operands of an operation are already shared and two operations
+ * are the same when they have the same class and the very same operands. Looking up an operation therefore
+ * never compares more than one level, however deep the expression is.
+ */
+class ExpressionTable {
+
+    private Expression[] table = new Expression[256];
+    private int size = 0;
+
+    /**
+     * Returns the shared expression that is structurally equal to the given one, which becomes the shared
+     * expression when there is none yet. The operands of an operation must have been interned before.
+     */
+    Expression intern(Expression expression) {
+        int mask = table.length - 1;
+        int index = spread(expression.hashCode()) & mask;
+        Expression existing;
+        while ((existing = table[index]) != null) {
+            if (isSame(existing, expression)) {
+                return existing;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = expression;
+        if (++size * 2 > table.length) {
+            grow();
+        }
+        return expression;
+    }
+
+    private boolean isSame(Expression existing, Expression expression) {
+        if (existing.getClass() != expression.getClass()) {
+            return false;
+        }
+        if (expression instanceof Operation) {
+            Operation left = (Operation) existing;
+            Operation right = (Operation) expression;
+            return left.lhs == right.lhs && left.rhs == right.rhs;
+        }
+        return existing.equals(expression);
+    }
+
+    private void grow() {
+        Expression[] old = table;
+        table = new Expression[old.length * 2];
+        int mask = table.length - 1;
+        for (Expression expression : old) {
+            if (expression != null) {
+                int index = spread(expression.hashCode()) & mask;
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = expression;
+            }
+        }
+    }
+
+    // Literal hashes are small consecutive numbers, mix the bits so they don't cluster in the table
+    private static int spread(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,152 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.Stylesheet;
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.VariableAssignment;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.IterativeParseTreeWalker;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parses a single top-level statement of a stylesheet, as found by TopLevelScanner.
+ * An instance parses one fragment and is not safe to share between threads; separate instances are.
+ * A cancelled parse throws a ParseCancellationException, see setCancellation.
+ */
+public class FragmentParser extends BaseErrorListener {
+
+    private final List<String> errors = new ArrayList<>();
+    // Offsets in the fragment of the input every error is about, start and end
+    private final List<int[]> errorRanges = new ArrayList<>();
+    // Position of the fragment in the whole source, so the tokens carry their position in the source
+    private final int line;
+    private final int column;
+    private BooleanSupplier cancelled = () -> false;
+
+    public FragmentParser() {
+        this(1, 0);
+    }
+
+    /**
+     * Creates a parser for a fragment that starts at the given position of the source
+     * @param line line of the first character, 1 based
+     * @param column column of the first character, 0 based
+     */
+    public FragmentParser(int line, int column) {
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Makes parsing and building the AST stop with a ParseCancellationException once it is cancelled
+     * @param cancelled tells whether the fragment is no longer needed
+     */
+    public void setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * The part of the fragment an error is about
+     * @param index the index of the error in getErrors
+     * @return the start and end offset in the fragment text
+     */
+    public int[] getErrorRange(int index) {
+        return errorRanges.get(index).clone();
+    }
+
+    /**
+     * Parses a sequence of statements as a stylesheet, such as a run of style rules
+     * @param text the source of the statements
+     * @return the stylesheet, or null when it has syntax errors
+     */
+    public Stylesheet parseStylesheet(String text) {
+        ICSSParser parser = createParser(text);
+        ASTNode node = build(parser.stylesheet(), parser);
+        return node instanceof Stylesheet ? (Stylesheet) node : null;
+    }
+
+    /**
+     * Parses a style rule
+     * @param text the source of the style rule
+     * @return the style rule, or null when it has syntax errors
+     */
+    public Stylerule parseStylerule(String text) {
+        ICSSParser parser = createParser(text);
+        ASTNode node = build(parser.stylerule(), parser);
+        return node instanceof Stylerule ? (Stylerule) node : null;
+    }
+
+    /**
+     * Parses a global variable assignment
+     * @param text the source of the assignment
+     * @return the assignment, or null when it has syntax errors
+     */
+    public VariableAssignment parseVariableAssignment(String text) {
+        ICSSParser parser = createParser(text);
+        ASTNode node = build(parser.variableAssignment(), parser);
+        return node instanceof VariableAssignment ? (VariableAssignment) node : null;
+    }
+
+    // Lexes the whole fragment, the parser that is returned parses its tokens
+    ICSSParser createParser(String text) {
+        ICSSLexer lexer = new ICSSLexer(CharStreams.fromString(text));
+        lexer.setLine(line);
+        lexer.setCharPositionInLine(column);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(this);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        tokens.fill();
+        ICSSParser parser = new ICSSParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(this);
+        parser.setErrorHandler(new CancellableErrorStrategy(cancelled));
+        return parser;
+    }
+
+    private ASTNode build(ParseTree parseTree, ICSSParser parser) {
+        return isParsed(parser) ? build(parseTree) : null;
+    }
+
+    // Whether the parser parsed the whole fragment without syntax errors
+    boolean isParsed(ICSSParser parser) {
+        // Everything after the statement is an error as well
+        Token next = parser.getCurrentToken();
+        if (next.getType() != Token.EOF) {
+            errors.add("Syntax error: unexpected input '" + next.getText() + "'");
+            errorRanges.add(new int[] {next.getStartIndex(), next.getStopIndex() + 1});
+        }
+        return errors.isEmpty();
+    }
+
+    // The AST of a parse tree without syntax errors
+    ASTNode build(ParseTree parseTree) {
+        ASTListener listener = new ASTListener();
+        listener.setCancellation(cancelled);
+        new IterativeParseTreeWalker().walk(listener, parseTree);
+        return parseTree instanceof ICSSParser.StylesheetContext ? listener.getAST().root : listener.getNode();
+    }
+
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                            String msg, RecognitionException e) {
+        errors.add("Syntax error: " + msg);
+        if (offendingSymbol instanceof Token && ((Token) offendingSymbol).getStartIndex() >= 0) {
+            Token token = (Token) offendingSymbol;
+            int start = token.getStartIndex();
+            errorRanges.add(new int[] {start, Math.max(start, token.getStopIndex() + 1)});
+        } else if (recognizer instanceof Lexer) {
+            Lexer lexer = (Lexer) recognizer;
+            errorRanges.add(new int[] {lexer._tokenStartCharIndex, lexer.getInputStream().index() + 1});
+        } else {
+            errorRanges.add(new int[] {0, 0});
+        }
+    }
+}
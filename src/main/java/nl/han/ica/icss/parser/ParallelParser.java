@@ -0,0 +1,230 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.Stylesheet;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Parses a large stylesheet on several threads.
+ *
+ * TopLevelScanner splits the source at its top-level statements. The global variable assignments (the prelude)
+ * are parsed as one fragment while the style rules are parsed as chunks of consecutive rules, each with its own
+ * lexer and parser. Every chunk starts its lexer at the line and column of its first rule, so the tokens keep
+ * their position in the source. The results are stitched into one stylesheet in source order.
+ *
+ * Parsing goes through the same steps as on one thread: lex, parse and build the AST. Every step is done for all
+ * fragments before the next one starts, so the steps can be measured apart, see Parse.
+ *
+ * Only sources without syntax errors are parsed this way: as soon as any part fails, parse returns null and the
+ * source should be parsed as a whole, which reports the errors as usual.
+ */
+public class ParallelParser {
+
+    // Below this number of style rules per chunk splitting costs more than parsing on one thread
+    private static final int MIN_RULES_PER_CHUNK = 64;
+
+    private final Executor executor;
+    private final int parallelism;
+    private BooleanSupplier cancelled = () -> false;
+
+    public ParallelParser() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Creates a parser that parses its chunks on the executor
+     * @param executor the executor to parse the chunks on
+     * @param parallelism the number of chunks to aim for
+     */
+    public ParallelParser(Executor executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Makes every step stop with a ParseCancellationException once it is cancelled, as CancellableErrorStrategy
+     * and ASTListener do on one thread. Lexing a fragment runs to its end.
+     * @param cancelled tells whether the AST is no longer needed
+     */
+    public void setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Parses a stylesheet
+     * @param source the ICSS source
+     * @return the AST, or null when the source can't be split into statements or has syntax errors
+     */
+    public AST parse(String source) {
+        Parse parse = lex(source);
+        return parse != null && parse.parse() ? parse.buildAST() : null;
+    }
+
+    /**
+     * Splits the source and lexes its fragments, the first step of parse
+     * @param source the ICSS source
+     * @return the parse to take the next steps of, or null when the source can't be split into statements
+     */
+    public Parse lex(String source) {
+        checkCancelled();
+        List<TopLevelScanner.Segment> segments = TopLevelScanner.scan(source);
+        if (segments == null) {
+            return null;
+        }
+        int globalCount = 0;
+        while (!segments.get(globalCount).stylerule) {
+            globalCount++;
+        }
+        List<TopLevelScanner.Segment> rules = segments.subList(globalCount, segments.size());
+
+        // Chunks of about the same number of characters, the last rule of every chunk is at an index in ends
+        int chunkCount = Math.min(parallelism, rules.size() / MIN_RULES_PER_CHUNK);
+        if (chunkCount < 2) {
+            return null;
+        }
+        ArrayList<List<Fragment>> groups = new ArrayList<>(chunkCount + 1);
+        ArrayList<Fragment> globals = new ArrayList<>(globalCount);
+        for (TopLevelScanner.Segment segment : segments.subList(0, globalCount)) {
+            globals.add(new Fragment(segment, segment.text(source), false));
+        }
+        groups.add(globals);
+        int ruleCharacters = rules.get(rules.size() - 1).end - rules.get(0).start;
+        int first = 0;
+        for (int chunk = 1; chunk <= chunkCount; chunk++) {
+            int limit = rules.get(0).start + (int) ((long) ruleCharacters * chunk / chunkCount);
+            int last = first;
+            while (last < rules.size() - 1 && (chunk == chunkCount || rules.get(last).end < limit)) {
+                last++;
+            }
+            TopLevelScanner.Segment start = rules.get(first);
+            groups.add(List.of(new Fragment(start, source.substring(start.start, rules.get(last).end), true)));
+            first = last + 1;
+            if (first == rules.size()) {
+                break;
+            }
+        }
+        Parse parse = new Parse(groups, segments.size());
+        parse.step(Fragment::lex);
+        return parse;
+    }
+
+    /**
+     * A parse of a split source, whose steps are taken one after the other
+     */
+    public final class Parse {
+
+        // The global variable assignments first, then one group for every chunk of style rules, in source order
+        private final List<List<Fragment>> groups;
+        private final int statementCount;
+
+        private Parse(List<List<Fragment>> groups, int statementCount) {
+            this.groups = groups;
+            this.statementCount = statementCount;
+        }
+
+        /**
+         * Parses the lexed fragments, the second step
+         * @return false when a fragment has syntax errors
+         */
+        public boolean parse() {
+            return step(Fragment::parse);
+        }
+
+        /**
+         * Builds the AST of the parsed fragments, the last step
+         * @return the AST
+         */
+        public AST buildAST() {
+            step(Fragment::build);
+            ArrayList<ASTNode> body = new ArrayList<>(statementCount);
+            for (List<Fragment> group : groups) {
+                for (Fragment fragment : group) {
+                    if (fragment.node instanceof Stylesheet) {
+                        body.addAll(((Stylesheet) fragment.node).body);
+                    } else {
+                        body.add(fragment.node);
+                    }
+                }
+            }
+            return new AST(new Stylesheet(body));
+        }
+
+        // Takes a step for every group on the executor, a group stops at the first fragment that fails
+        private boolean step(Predicate<Fragment> step) {
+            ArrayList<CompletableFuture<Boolean>> results = new ArrayList<>(groups.size());
+            for (List<Fragment> group : groups) {
+                results.add(CompletableFuture.supplyAsync(() -> group.stream().allMatch(step), executor));
+            }
+            boolean succeeded = true;
+            for (CompletableFuture<Boolean> result : results) {
+                try {
+                    succeeded &= result.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof ParseCancellationException) {
+                        throw (ParseCancellationException) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            checkCancelled();
+            return succeeded;
+        }
+    }
+
+    // A global variable assignment or a chunk of style rules, with what the steps so far made of it
+    private final class Fragment {
+
+        private final FragmentParser fragmentParser;
+        private final String text;
+        private final boolean stylerules;
+        private ICSSParser parser;
+        private ParseTree parseTree;
+        private ASTNode node;
+
+        Fragment(TopLevelScanner.Segment start, String text, boolean stylerules) {
+            fragmentParser = new FragmentParser(start.line, start.column);
+            fragmentParser.setCancellation(cancelled);
+            this.text = text;
+            this.stylerules = stylerules;
+        }
+
+        boolean lex() {
+            parser = fragmentParser.createParser(text);
+            return true;
+        }
+
+        boolean parse() {
+            try {
+                parseTree = stylerules ? parser.stylesheet() : parser.variableAssignment();
+            } catch (StackOverflowError e) {
+                return false;
+            }
+            return fragmentParser.isParsed(parser);
+        }
+
+        boolean build() {
+            node = fragmentParser.build(parseTree);
+            // The parse tree and tokens are no longer needed
+            parser = null;
+            parseTree = null;
+            return true;
+        }
+    }
+
+    private void checkCancelled() {
+        if (cancelled.getAsBoolean()) {
+            throw new ParseCancellationException("Parse cancelled");
+        }
+    }
+}
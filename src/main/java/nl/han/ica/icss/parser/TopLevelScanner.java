@@ -0,0 +1,110 @@
+package nl.han.ica.icss.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits ICSS source into its top-level statements without lexing it: global variable assignments end at a
+ * semicolon outside braces and style rules at their balanced closing brace. ICSS has no strings or comments,
+ * so counting braces is exact.
+ */
+public final class TopLevelScanner {
+
+    private TopLevelScanner() {
+    }
+
+    public static final class Segment {
+        // True for a style rule, false for a variable assignment
+        public final boolean stylerule;
+        // Offsets of the statement in the source, end exclusive
+        public final int start;
+        public final int end;
+        // Line (1 based) and column (0 based) of the first character, as Antlr counts them
+        public final int line;
+        public final int column;
+
+        Segment(boolean stylerule, int start, int end, int line, int column) {
+            this.stylerule = stylerule;
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            this.column = column;
+        }
+
+        public String text(String source) {
+            return source.substring(start, end);
+        }
+    }
+
+    /**
+     * Splits the source into top-level statements
+     * @param source the ICSS source
+     * @return the statements in order, or null when the source is not a list of assignments followed by
+     * style rules with balanced braces. Parsing it as a whole gives the proper syntax error then.
+     */
+    public static List<Segment> scan(String source) {
+        return scan(source, false);
+    }
+
+    /**
+     * Splits a source that has nothing but variable assignments, such as a prelude
+     * @param source the ICSS source
+     * @return the assignments in order, or null when the source has anything else
+     */
+    public static List<Segment> scanAssignments(String source) {
+        return scan(source, true);
+    }
+
+    private static List<Segment> scan(String source, boolean assignmentsOnly) {
+        ArrayList<Segment> segments = new ArrayList<>();
+        int length = source.length();
+        int line = 1;
+        int lineStart = 0;
+        int i = 0;
+        boolean seenStylerule = false;
+        while (true) {
+            // Skip the whitespace between statements
+            while (i < length && Character.isWhitespace(source.charAt(i))) {
+                if (source.charAt(i) == '\n') {
+                    line++;
+                    lineStart = i + 1;
+                }
+                i++;
+            }
+            if (i == length) {
+                return seenStylerule != assignmentsOnly ? segments : null;
+            }
+            int start = i;
+            int startLine = line;
+            int startColumn = i - lineStart;
+            int depth = 0;
+            boolean stylerule = false;
+            int end = -1;
+            for (; i < length && end == -1; i++) {
+                char c = source.charAt(i);
+                if (c == '\n') {
+                    line++;
+                    lineStart = i + 1;
+                } else if (c == '{') {
+                    depth++;
+                    stylerule = true;
+                } else if (c == '}') {
+                    if (--depth < 0) {
+                        return null;
+                    }
+                    if (depth == 0) {
+                        end = i + 1;
+                    }
+                } else if (c == ';' && depth == 0) {
+                    end = i + 1;
+                }
+            }
+            // Unterminated statement, or an assignment after a style rule which the grammar doesn't allow
+            if (end == -1 || (!stylerule && seenStylerule) || (stylerule && assignmentsOnly)) {
+                return null;
+            }
+            seenStylerule |= stylerule;
+            segments.add(new Segment(stylerule, start, end, startLine, startColumn));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+import nl.han.ica.icss.checker.Checker;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+public class CheckPass implements Pass {
+
+    private final Checker checker;
+
+    public CheckPass() {
+        this(new Checker());
+    }
+
+    public CheckPass(Checker checker) {
+        this.checker = checker;
+    }
+
+    @Override
+    public String getName() {
+        return "check";
+    }
+
+    @Override
+    public Set<Facet> reads() {
+        return EnumSet.noneOf(Facet.class);
+    }
+
+    @Override
+    public Set<Facet> writes() {
+        return EnumSet.of(Facet.ERRORS);
+    }
+
+    @Override
+    public boolean begin(Stylesheet stylesheet) {
+        return checker.begin(stylesheet);
+    }
+
+    @Override
+    public Stylerule apply(Stylerule stylerule) {
+        return checker.check(stylerule) ? stylerule : null;
+    }
+
+    @Override
+    public Stylerule getFailed(Stylerule stylerule) {
+        return checker.getFailed();
+    }
+
+    @Override
+    public Stylesheet end(Stylesheet stylesheet) {
+        return checker.end(stylesheet);
+    }
+}
@@ -0,0 +1,57 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+import nl.han.ica.icss.transforms.EvalExpressions;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+public class EvaluatePass implements Pass {
+
+    private final EvalExpressions evalExpressions;
+
+    public EvaluatePass() {
+        this(new EvalExpressions());
+    }
+
+    public EvaluatePass(EvalExpressions evalExpressions) {
+        this.evalExpressions = evalExpressions;
+    }
+
+    @Override
+    public String getName() {
+        return "evaluate";
+    }
+
+    // Only style rules without errors reach this pass
+    @Override
+    public Set<Facet> reads() {
+        return EnumSet.of(Facet.ERRORS);
+    }
+
+    @Override
+    public Set<Facet> writes() {
+        return EnumSet.of(Facet.VALUES, Facet.VARIABLES, Facet.ERRORS);
+    }
+
+    @Override
+    public boolean begin(Stylesheet stylesheet) {
+        return evalExpressions.begin(stylesheet);
+    }
+
+    @Override
+    public Stylerule apply(Stylerule stylerule) {
+        return evalExpressions.apply(stylerule);
+    }
+
+    @Override
+    public Stylerule getFailed(Stylerule stylerule) {
+        return evalExpressions.getFailed();
+    }
+
+    @Override
+    public Stylesheet end(Stylesheet stylesheet) {
+        return evalExpressions.end(stylesheet);
+    }
+}
@@ -0,0 +1,18 @@
+package nl.han.ica.icss.passes;
+
+/**
+ * The parts of a compilation a pass reads or writes. The pass manager runs a pass after every pass that
+ * writes something it reads.
+ */
+public enum Facet {
+    // Semantic errors on the nodes of the AST
+    ERRORS,
+    // Declarations and conditions folded into literals
+    VALUES,
+    // Variable assignments, which are removed once their values are known
+    VARIABLES,
+    // The declarations in the bodies of the style rules, flattened when the if clauses are removed
+    BODIES,
+    // The generated CSS
+    CSS
+}
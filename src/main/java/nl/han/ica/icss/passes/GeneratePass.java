@@ -0,0 +1,46 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+import nl.han.ica.icss.generator.Generator;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+public class GeneratePass implements Pass {
+
+    private final Generator generator = new Generator();
+    private StringBuilder output = new StringBuilder();
+
+    @Override
+    public String getName() {
+        return "generate";
+    }
+
+    @Override
+    public Set<Facet> reads() {
+        return EnumSet.of(Facet.VALUES, Facet.VARIABLES, Facet.BODIES);
+    }
+
+    @Override
+    public Set<Facet> writes() {
+        return EnumSet.of(Facet.CSS);
+    }
+
+    @Override
+    public boolean begin(Stylesheet stylesheet) {
+        output = new StringBuilder();
+        return true;
+    }
+
+    @Override
+    public Stylerule apply(Stylerule stylerule) {
+        generator.generate(stylerule, output);
+        return stylerule;
+    }
+
+    // The CSS of the style rules that reached this pass in the last run
+    public String getOutput() {
+        return output.toString();
+    }
+}
@@ -0,0 +1,44 @@
+package nl.han.ica.icss.passes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The peak heap usage since the last reset, for measuring how much memory a phase holds on to at most.
+ *
+ * The VM samples the usage of every heap pool itself, at every garbage collection and whenever it is asked, so
+ * the peak includes garbage that was collected during the phase without a sampling thread. The peaks of the pools
+ * are added up although they need not fall at the same moment, which can overestimate the peak a little. The heap
+ * is shared, so allocations of other threads during the phase count as well.
+ */
+public final class HeapPeak {
+
+    private static final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .collect(Collectors.toList());
+
+    private HeapPeak() {
+    }
+
+    // Starts a new measurement
+    public static void reset() {
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * The largest heap usage since the last reset
+     * @return the number of bytes
+     */
+    public static long peakBytes() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            bytes += pool.getPeakUsage().getUsed();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,66 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+
+import java.util.Set;
+
+/**
+ * A step of a compilation that the PassManager runs.
+ *
+ * A pass works one style rule at a time: begin is called once for the stylesheet (where global variables are
+ * handled), then apply for every style rule and finally end. Passes that are fusable run together, so every
+ * style rule goes through all of them before the next style rule is started. A pass that needs to see the
+ * whole stylesheet at once is not fusable and does its work in end.
+ *
+ * A pass does not change the nodes it is given, it returns new nodes instead (see ASTNode).
+ */
+public interface Pass {
+
+    String getName();
+
+    // What the pass needs from earlier passes
+    Set<Facet> reads();
+
+    // What the pass changes or produces
+    Set<Facet> writes();
+
+    default boolean isFusable() {
+        return true;
+    }
+
+    /**
+     * Prepares the pass for a stylesheet
+     * @param stylesheet the stylesheet that is compiled
+     * @return false when the stylesheet has errors, later passes are then skipped
+     */
+    default boolean begin(Stylesheet stylesheet) {
+        return true;
+    }
+
+    /**
+     * Applies the pass to one style rule
+     * @param stylerule the style rule
+     * @return the resulting style rule, or null when the style rule has errors. Later passes then skip it.
+     */
+    Stylerule apply(Stylerule stylerule);
+
+    /**
+     * The style rule with the errors of the last apply that returned null, which takes the place of the style rule
+     * in the resulting AST. A pass that reports errors on copies of the nodes returns the copy.
+     * @param stylerule the style rule that was given to apply
+     * @return the style rule with the errors
+     */
+    default Stylerule getFailed(Stylerule stylerule) {
+        return stylerule;
+    }
+
+    /**
+     * Finishes the pass for the stylesheet
+     * @param stylesheet the stylesheet with the style rules that resulted from apply
+     * @return the resulting stylesheet
+     */
+    default Stylesheet end(Stylesheet stylesheet) {
+        return stylesheet;
+    }
+}
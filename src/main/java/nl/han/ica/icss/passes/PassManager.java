@@ -0,0 +1,297 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs a set of passes over an AST. The AST is left unchanged, the passes build a new AST that shares
+ * everything they don't change.
+ *
+ * The passes are ordered by what they read and write: a pass runs after every pass that writes something it
+ * reads. When two passes both read what the other writes, the one that was added first runs first. Apart from
+ * that the passes keep the order in which they were added.
+ *
+ * Consecutive fusable passes run in a single traversal of the stylesheet: every style rule goes through all of
+ * them while it is at hand, instead of every pass walking the whole stylesheet in turn. A style rule that fails
+ * a pass is skipped by the passes after it.
+ *
+ * The time spent in every pass is kept for the last run, and so are the bytes every pass allocated when
+ * allocations are measured. Measuring allocations costs a little for every style rule, so it is off by default.
+ */
+public class PassManager {
+
+    private final ArrayList<Pass> passes = new ArrayList<>();
+    private List<Pass> schedule;
+    private final LinkedHashMap<String, Long> timings = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> allocations = new LinkedHashMap<>();
+    private boolean successful;
+    private boolean measureAllocations;
+    private BooleanSupplier cancelled = () -> false;
+    private boolean wasCancelled;
+    // The passes that began in the last run
+    private final Set<Pass> begunPasses = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Start of the measurement of the pass that is running
+    private long startNanos;
+    private long startBytes;
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        schedule = null;
+        return this;
+    }
+
+    /**
+     * The passes in the order they run
+     * @return an unmodifiable list of the passes
+     * @throws IllegalStateException when passes depend on each other in a cycle
+     */
+    public List<Pass> getSchedule() {
+        if (schedule == null) {
+            schedule = Collections.unmodifiableList(schedule(passes));
+        }
+        return schedule;
+    }
+
+    /**
+     * Runs all passes over the AST, which is left unchanged
+     * @param ast the AST to compile
+     * @return the AST that results from the passes
+     */
+    public AST run(AST ast) {
+        List<Pass> order = getSchedule();
+        long[] nanos = new long[order.size()];
+        long[] bytes = new long[order.size()];
+        boolean[] enabled = new boolean[order.size()];
+        Arrays.fill(enabled, true);
+        Set<Stylerule> failedRules = Collections.newSetFromMap(new IdentityHashMap<>());
+        successful = ast.root != null;
+        wasCancelled = false;
+        begunPasses.clear();
+
+        Stylesheet stylesheet = ast.root;
+        int groupStart = 0;
+        while (successful && groupStart < order.size()) {
+            int groupEnd = groupStart + 1;
+            // A pass that cannot be fused runs on its own, after every pass before it has seen every style rule
+            if (order.get(groupStart).isFusable()) {
+                while (groupEnd < order.size() && order.get(groupEnd).isFusable()) {
+                    groupEnd++;
+                }
+            }
+            stylesheet = runGroup(stylesheet, order, groupStart, groupEnd, nanos, bytes, enabled, failedRules);
+            groupStart = groupEnd;
+        }
+        successful = successful && failedRules.isEmpty();
+
+        timings.clear();
+        allocations.clear();
+        for (int i = 0; i < order.size(); i++) {
+            timings.merge(order.get(i).getName(), nanos[i], Long::sum);
+            if (measureAllocations) {
+                allocations.merge(order.get(i).getName(), bytes[i], Long::sum);
+            }
+        }
+        return stylesheet == ast.root ? ast : new AST(stylesheet);
+    }
+
+    // Whether every pass of the last run succeeded for the stylesheet and for every style rule
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    // Whether the last run was cancelled, its result then has the style rules that went through every pass
+    public boolean isCancelled() {
+        return wasCancelled;
+    }
+
+    // Whether the pass began in the last run, a pass after a failed or cancelled pass doesn't
+    public boolean hasBegun(Pass pass) {
+        return begunPasses.contains(pass);
+    }
+
+    /**
+     * Makes every run stop once it is cancelled, which is checked before every style rule. The passes that began
+     * still end, so they leave their state as usual.
+     * @param cancelled tells whether the run is no longer needed
+     * @return this pass manager
+     */
+    public PassManager setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+        return this;
+    }
+
+    /**
+     * Measures the bytes every pass allocates from the next run on, see ThreadAllocation
+     * @param measureAllocations whether to measure allocations
+     * @return this pass manager
+     */
+    public PassManager setMeasureAllocations(boolean measureAllocations) {
+        this.measureAllocations = measureAllocations && ThreadAllocation.isSupported();
+        return this;
+    }
+
+    private Stylesheet runGroup(Stylesheet stylesheet, List<Pass> order, int start, int end, long[] nanos, long[] bytes, boolean[] enabled, Set<Stylerule> failedRules) {
+        boolean[] begun = new boolean[end - start];
+        for (int i = start; i < end; i++) {
+            if (enabled[i]) {
+                begun[i - start] = true;
+                begunPasses.add(order.get(i));
+                startMeasuring();
+                boolean passed = order.get(i).begin(stylesheet);
+                stopMeasuring(i, nanos, bytes);
+                if (!passed) {
+                    // The pass itself still sees every style rule to report all errors, the passes after it don't run
+                    successful = false;
+                    Arrays.fill(enabled, i + 1, enabled.length, false);
+                }
+            }
+        }
+
+        // A style rule that fails a pass keeps the errors of that pass, the passes after it skip it
+        ArrayList<ASTNode> body = new ArrayList<>(stylesheet.body.size());
+        boolean changed = false;
+        for (ASTNode child : stylesheet.body) {
+            if (child instanceof Stylerule && (wasCancelled || cancelled.getAsBoolean())) {
+                // The style rules from here on are left out, the passes after this group don't run
+                wasCancelled = true;
+                successful = false;
+                changed = true;
+            } else if (child instanceof Stylerule && !failedRules.contains(child)) {
+                Stylerule stylerule = (Stylerule) child;
+                for (int i = start; i < end; i++) {
+                    if (enabled[i]) {
+                        startMeasuring();
+                        Stylerule result = order.get(i).apply(stylerule);
+                        stopMeasuring(i, nanos, bytes);
+                        if (result == null) {
+                            stylerule = order.get(i).getFailed(stylerule);
+                            failedRules.add(stylerule);
+                            break;
+                        }
+                        stylerule = result;
+                    }
+                }
+                changed |= stylerule != child;
+                body.add(stylerule);
+            } else {
+                body.add(child);
+            }
+        }
+        if (changed) {
+            stylesheet = stylesheet.withBody(body);
+        }
+
+        for (int i = start; i < end; i++) {
+            if (begun[i - start]) {
+                startMeasuring();
+                stylesheet = order.get(i).end(stylesheet);
+                stopMeasuring(i, nanos, bytes);
+            }
+        }
+        return stylesheet;
+    }
+
+    private void startMeasuring() {
+        if (measureAllocations) {
+            startBytes = ThreadAllocation.allocatedBytes();
+        }
+        startNanos = System.nanoTime();
+    }
+
+    private void stopMeasuring(int pass, long[] nanos, long[] bytes) {
+        nanos[pass] += System.nanoTime() - startNanos;
+        if (measureAllocations) {
+            bytes[pass] += ThreadAllocation.allocatedBytes() - startBytes;
+        }
+    }
+
+    // Orders the passes by their dependencies, taking the first pass in the order they were added that can run
+    private static List<Pass> schedule(List<Pass> passes) {
+        int count = passes.size();
+        boolean[][] runsAfter = new boolean[count][count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                if (i != j && dependsOn(passes.get(i), passes.get(j))) {
+                    // When both depend on each other the order in which they were added decides
+                    runsAfter[i][j] = j < i || !dependsOn(passes.get(j), passes.get(i));
+                }
+            }
+        }
+
+        ArrayList<Pass> order = new ArrayList<>(count);
+        boolean[] scheduled = new boolean[count];
+        while (order.size() < count) {
+            int next = -1;
+            for (int i = 0; i < count && next == -1; i++) {
+                if (!scheduled[i] && canRun(i, runsAfter, scheduled)) {
+                    next = i;
+                }
+            }
+            if (next == -1) {
+                throw new IllegalStateException("The passes " + unscheduledNames(passes, scheduled) + " depend on each other.");
+            }
+            scheduled[next] = true;
+            order.add(passes.get(next));
+        }
+        return order;
+    }
+
+    private static boolean dependsOn(Pass pass, Pass other) {
+        return !Collections.disjoint(pass.reads(), other.writes());
+    }
+
+    private static boolean canRun(int pass, boolean[][] runsAfter, boolean[] scheduled) {
+        for (int j = 0; j < scheduled.length; j++) {
+            if (runsAfter[pass][j] && !scheduled[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> unscheduledNames(List<Pass> passes, boolean[] scheduled) {
+        ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < scheduled.length; i++) {
+            if (!scheduled[i]) {
+                names.add(passes.get(i).getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Time spent in every pass during the last run, in the order the passes ran
+     * @return nanoseconds per pass name
+     */
+    public LinkedHashMap<String, Long> getTimings() {
+        return new LinkedHashMap<>(timings);
+    }
+
+    // Bytes allocated by every pass in the last run, empty unless allocations are measured
+    public LinkedHashMap<String, Long> getAllocations() {
+        return new LinkedHashMap<>(allocations);
+    }
+
+    // A readable table of the timings of the last run
+    public String getTimingReport() {
+        StringBuilder builder = new StringBuilder();
+        long total = 0;
+        for (var timing : timings.entrySet()) {
+            builder.append(String.format("%-12s %10.3f ms%n", timing.getKey(), timing.getValue() / 1e6));
+            total += timing.getValue();
+        }
+        builder.append(String.format("%-12s %10.3f ms%n", "total", total / 1e6));
+        return builder.toString();
+    }
+}
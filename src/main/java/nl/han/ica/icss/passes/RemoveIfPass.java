@@ -0,0 +1,32 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.transforms.RemoveIf;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+public class RemoveIfPass implements Pass {
+
+    private final RemoveIf removeIf = new RemoveIf();
+
+    @Override
+    public String getName() {
+        return "remove-if";
+    }
+
+    @Override
+    public Set<Facet> reads() {
+        return EnumSet.of(Facet.VALUES);
+    }
+
+    @Override
+    public Set<Facet> writes() {
+        return EnumSet.of(Facet.BODIES);
+    }
+
+    @Override
+    public Stylerule apply(Stylerule stylerule) {
+        return removeIf.apply(stylerule);
+    }
+}
@@ -0,0 +1,40 @@
+package nl.han.ica.icss.passes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Bytes allocated by the current thread, for measuring how much memory a phase allocates. It relies on the
+ * HotSpot extension of ThreadMXBean; where that is not available every measurement is -1.
+ */
+public final class ThreadAllocation {
+
+    private static final com.sun.management.ThreadMXBean threads = allocationBean();
+
+    private ThreadAllocation() {
+    }
+
+    public static boolean isSupported() {
+        return threads != null;
+    }
+
+    /**
+     * Total number of bytes the current thread allocated so far
+     * @return the number of bytes, or -1 when it can't be measured
+     */
+    public static long allocatedBytes() {
+        return threads != null ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+            if (allocationBean.isThreadAllocatedMemorySupported()) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+                return allocationBean;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,60 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+import nl.han.ica.icss.transforms.Transform;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Runs a Transform on the whole AST as a pass. The transform sees the complete stylesheet, so it is not fused
+ * with other passes and runs in end.
+ */
+public class TransformPass implements Pass {
+
+    private final String name;
+    private final Transform transform;
+    private final Set<Facet> reads;
+    private final Set<Facet> writes;
+
+    public TransformPass(String name, Transform transform, Set<Facet> reads, Set<Facet> writes) {
+        this.name = name;
+        this.transform = transform;
+        this.reads = EnumSet.noneOf(Facet.class);
+        this.reads.addAll(reads);
+        this.writes = EnumSet.noneOf(Facet.class);
+        this.writes.addAll(writes);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Set<Facet> reads() {
+        return reads;
+    }
+
+    @Override
+    public Set<Facet> writes() {
+        return writes;
+    }
+
+    @Override
+    public boolean isFusable() {
+        return false;
+    }
+
+    @Override
+    public Stylerule apply(Stylerule stylerule) {
+        return stylerule;
+    }
+
+    @Override
+    public Stylesheet end(Stylesheet stylesheet) {
+        return transform.apply(new AST(stylesheet)).root;
+    }
+}
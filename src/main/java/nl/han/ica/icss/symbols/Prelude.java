@@ -0,0 +1,58 @@
+package nl.han.ica.icss.symbols;
+
+import nl.han.ica.icss.ast.Literal;
+import nl.han.ica.icss.ast.types.ExpressionType;
+
+import java.util.Arrays;
+
+/**
+ * Global variables that were compiled once and are shared by the compilations of many stylesheets, such as a
+ * common set of design tokens. It holds the type and the evaluated value of every variable, indexed by symbol id.
+ *
+ * A prelude is immutable and safe to share between threads. Compiling a stylesheet with a prelude is the same as
+ * compiling it with the prelude's source in front of its own globals, so a stylesheet can redefine a variable.
+ * See Pipeline.compilePrelude.
+ */
+public final class Prelude {
+
+    public static final Prelude EMPTY = new Prelude(new int[0], new ExpressionType[0], new Literal[0]);
+
+    // The variables in the order they were assigned, and their types and values in arrays indexed by symbol id
+    private final int[] symbols;
+    private final ExpressionType[] types;
+    private final Literal[] values;
+
+    /**
+     * Creates a prelude
+     * @param symbols the symbol ids of the variables
+     * @param types the type of every variable, in the same order
+     * @param values the value of every variable, in the same order
+     */
+    public Prelude(int[] symbols, ExpressionType[] types, Literal[] values) {
+        this.symbols = symbols.clone();
+        int size = Arrays.stream(symbols).max().orElse(-1) + 1;
+        this.types = new ExpressionType[size];
+        this.values = new Literal[size];
+        for (int i = 0; i < symbols.length; i++) {
+            this.types[symbols[i]] = types[i];
+            this.values[symbols[i]] = values[i];
+        }
+    }
+
+    public int size() {
+        return symbols.length;
+    }
+
+    // Symbol id of the index-th variable
+    public int getSymbol(int index) {
+        return symbols[index];
+    }
+
+    public ExpressionType getType(int symbol) {
+        return symbol < types.length ? types[symbol] : null;
+    }
+
+    public Literal getValue(int symbol) {
+        return symbol < values.length ? values[symbol] : null;
+    }
+}
@@ -0,0 +1,103 @@
+package nl.han.ica.icss.symbols;
+
+import java.util.Arrays;
+
+/**
+ * Variable bindings for nested scopes, indexed by symbol id.
+ *
+ * Every symbol has at most one visible binding, kept in pages of PAGE_SIZE symbols indexed by its id, so a lookup is
+ * two array accesses regardless of the number of scopes. Symbol ids are global to the process and keep growing in a
+ * long-running one (see Symbols), so only the pages of symbols that were bound are allocated: a table takes memory
+ * for the variables of its compilation, not for every name the process has seen. Leaving a scope removes the
+ * bindings made in it.
+ * A name that is already bound in an outer scope keeps its outer value: the outermost binding wins.
+ *
+ * The version identifies the visible bindings as a whole. Every new binding gets a fresh version and leaving
+ * a scope restores the version from before it was entered, so two moments with the same version see exactly
+ * the same bindings. Results that depend on variables can be cached under the version.
+ *
+ * @param <T> the value bound to a variable
+ */
+public class ScopeTable<T> {
+
+    private static final int PAGE_BITS = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // The pages of values by symbol id, null for pages without bound symbols
+    private Object[][] values = new Object[1][];
+    // Scope depth at which the symbol is bound, 0 when it is not bound
+    private int[][] bindingDepths = new int[1][];
+    // Symbols in the order they were bound, scopeStarts marks where every scope begins
+    private int[] bound = new int[64];
+    private int boundCount = 0;
+    private int[] scopeStarts = new int[16];
+    private int depth = 0;
+    private int version = 0;
+    private int lastVersion = 0;
+    private int[] scopeVersions = new int[16];
+
+    public void enterScope() {
+        if (depth == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+            scopeVersions = Arrays.copyOf(scopeVersions, depth * 2);
+        }
+        scopeVersions[depth] = version;
+        scopeStarts[depth++] = boundCount;
+    }
+
+    public void exitScope() {
+        version = scopeVersions[depth - 1];
+        int start = scopeStarts[--depth];
+        while (boundCount > start) {
+            int symbol = bound[--boundCount];
+            values[symbol >>> PAGE_BITS][symbol & PAGE_MASK] = null;
+            bindingDepths[symbol >>> PAGE_BITS][symbol & PAGE_MASK] = 0;
+        }
+    }
+
+    public void put(int symbol, T value) {
+        int page = symbol >>> PAGE_BITS;
+        int offset = symbol & PAGE_MASK;
+        ensurePage(page);
+        int bindingDepth = bindingDepths[page][offset];
+        if (bindingDepth == 0) {
+            version = ++lastVersion;
+            values[page][offset] = value;
+            bindingDepths[page][offset] = depth;
+            if (boundCount == bound.length) {
+                bound = Arrays.copyOf(bound, boundCount * 2);
+            }
+            bound[boundCount++] = symbol;
+        } else if (bindingDepth == depth) {
+            version = ++lastVersion;
+            values[page][offset] = value;
+        }
+        // Otherwise the symbol is bound in an outer scope, which takes precedence
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int symbol) {
+        int page = symbol >>> PAGE_BITS;
+        if (page >= values.length || values[page] == null) {
+            return null;
+        }
+        return (T) values[page][symbol & PAGE_MASK];
+    }
+
+    private void ensurePage(int page) {
+        if (page >= values.length) {
+            int length = Math.max(values.length * 2, page + 1);
+            values = Arrays.copyOf(values, length);
+            bindingDepths = Arrays.copyOf(bindingDepths, length);
+        }
+        if (values[page] == null) {
+            values[page] = new Object[PAGE_SIZE];
+            bindingDepths[page] = new int[PAGE_SIZE];
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package nl.han.ica.icss.symbols;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global table of interned names (properties, selectors and variable names).
+ * Every distinct name gets a dense int id, so the compiler compares and looks up names by id
+ * and every occurrence of a name shares one String.
+ *
+ * The table is shared by all compilations and safe to use from several threads. Ids are never
+ * released, which is fine for the vocabulary of stylesheets but means the table grows with every
+ * new name it sees. In a process that keeps running, such as the Worker, the LanguageServer or a
+ * CompileService, it holds every distinct name of every stylesheet it compiled, including the names
+ * that were only half typed in an editor. An id can't be reused safely because schemas, preludes
+ * and incremental compilers keep ids without their names, so the memory is only given back when the
+ * process ends; size() tells how large the table got. Tables indexed by id should not allocate for
+ * every id for that reason, see ScopeTable.
+ */
+public final class Symbols {
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[256];
+    private static int count = 0;
+
+    private Symbols() {
+    }
+
+    /**
+     * Returns the id of the name, assigning the next free id when the name is new
+     * @param name the name to intern
+     * @return the id of the name
+     */
+    public static int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (Symbols.class) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            String[] table = names;
+            if (count == table.length) {
+                table = Arrays.copyOf(table, count * 2);
+            }
+            table[count] = name;
+            names = table;
+            // The name is stored before the id becomes visible, so name(id) works for everyone who can see the id
+            ids.put(name, count);
+            return count++;
+        }
+    }
+
+    /**
+     * Returns the name of an id that was handed out by intern
+     * @param id the id of the name
+     * @return the canonical String of the name
+     */
+    public static String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Number of names in the table, all ids are below this number
+     * @return the number of interned names
+     */
+    public static int size() {
+        synchronized (Symbols.class) {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package nl.han.ica.icss.transforms;
+
+/*
+ * Arithmetic on colors packed as 0xAARRGGBB. Every operation works per red, green and blue channel,
+ * clamps the channel to 0..255 and keeps the alpha of the left operand.
+ */
+final class ColorOperations {
+
+    private ColorOperations() {
+    }
+
+    static int add(int left, int right) {
+        return combine(left, channel(left, 16) + channel(right, 16),
+                channel(left, 8) + channel(right, 8),
+                channel(left, 0) + channel(right, 0));
+    }
+
+    static int subtract(int left, int right) {
+        return combine(left, channel(left, 16) - channel(right, 16),
+                channel(left, 8) - channel(right, 8),
+                channel(left, 0) - channel(right, 0));
+    }
+
+    static int multiply(int color, int factor) {
+        return combine(color, channel(color, 16) * (long) factor,
+                channel(color, 8) * (long) factor,
+                channel(color, 0) * (long) factor);
+    }
+
+    // Moves every channel the given percentage towards white, a negative percentage moves it towards black.
+    static int lighten(int color, int percentage) {
+        if (percentage < 0) {
+            return darken(color, -percentage);
+        }
+        int p = Math.min(percentage, 100);
+        int r = channel(color, 16);
+        int g = channel(color, 8);
+        int b = channel(color, 0);
+        return combine(color, r + (255 - r) * p / 100, g + (255 - g) * p / 100, b + (255 - b) * p / 100);
+    }
+
+    // Moves every channel the given percentage towards black, a negative percentage moves it towards white.
+    static int darken(int color, int percentage) {
+        if (percentage < 0) {
+            return lighten(color, -percentage);
+        }
+        int p = Math.min(percentage, 100);
+        int r = channel(color, 16);
+        int g = channel(color, 8);
+        int b = channel(color, 0);
+        return combine(color, r - r * p / 100, g - g * p / 100, b - b * p / 100);
+    }
+
+    private static int channel(int color, int shift) {
+        return (color >>> shift) & 0xff;
+    }
+
+    private static int combine(int alphaSource, long r, long g, long b) {
+        return (alphaSource & 0xff000000) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    private static int clamp(long channel) {
+        return (int) Math.max(0, Math.min(255, channel));
+    }
+}
@@ -1,182 +1,603 @@
 package nl.han.ica.icss.transforms;
 
-import nl.han.ica.datastructures.IHANLinkedList;
 import nl.han.ica.icss.ast.*;
-import nl.han.ica.datastructures.HANLinkedList;
-import nl.han.ica.icss.ast.literals.PercentageLiteral;
-import nl.han.ica.icss.ast.literals.PixelLiteral;
-import nl.han.ica.icss.ast.literals.ScalarLiteral;
+import nl.han.ica.icss.ast.literals.*;
 import nl.han.ica.icss.ast.operations.AddOperation;
 import nl.han.ica.icss.ast.operations.MultiplyOperation;
 import nl.han.ica.icss.ast.operations.SubtractOperation;
+import nl.han.ica.icss.ast.types.ExpressionType;
+import nl.han.ica.icss.symbols.Prelude;
+import nl.han.ica.icss.symbols.ScopeTable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 public class EvalExpressions implements Transform {
 
-    private IHANLinkedList<HashMap<String, Literal>> variableValues;
+    private ScopeTable<Literal> variableValues;
+    private final Prelude prelude;
+
+    // Computed literals are shared per value within a compilation. Literals from the source are not,
+    // they can carry an error of their own.
+    private final HashMap<Integer, PixelLiteral> pixelLiterals = new HashMap<>();
+    private final HashMap<Integer, PercentageLiteral> percentageLiterals = new HashMap<>();
+    private final HashMap<Integer, ScalarLiteral> scalarLiterals = new HashMap<>();
+    private final HashMap<Integer, ColorLiteral> colorLiterals = new HashMap<>();
+
+    /*
+     * Expressions are evaluated bottom up on an operand stack, so the depth of an expression takes no call stack.
+     * An operand is a type and a value in parallel primitive arrays: pixels, percentages and scalars hold their
+     * number, colors their packed 0xAARRGGBB value and booleans 0 or 1. Only the final value of a statement
+     * becomes a Literal. The value is a long so a result that no longer fits a literal can be detected.
+     */
+    private final ASTWalker walker = new ASTWalker();
+    private ExpressionType[] operandTypes = new ExpressionType[16];
+    private long[] operandValues = new long[16];
+    private boolean[] operandUsesVariables = new boolean[16];
+    private int operandCount;
+    // Whether any operand popped since the last push depends on a variable
+    private boolean poppedUsesVariables;
+    // The two operands of the operation that is being folded, set by popOperands
+    private ExpressionType leftType;
+    private long leftValue;
+    private ExpressionType rightType;
+    private long rightValue;
+    // Set when a value in the expression that is being evaluated is out of range
+    private boolean outOfRange;
+    // Number of statements with a value out of range since the last begin or apply
+    private int errorCount;
+
+    // Results of the statements that have been evaluated, see exitStatement
+    private ASTNode[] results = new ASTNode[16];
+    private int resultCount;
+    // Evaluated conditions of the if clauses that are being walked
+    private Literal[] conditions = new Literal[8];
+    private int conditionCount;
+    // The global variables whose value is out of range and their copies with the error, for end
+    private final IdentityHashMap<ASTNode, ASTNode> failedGlobals = new IdentityHashMap<>();
+    // The evaluated style rule of the last apply that failed
+    private Stylerule failed;
+
+    /*
+     * Expressions are shared between declarations (see ExpressionTable), so every operation is folded once and
+     * the result is reused wherever it occurs again. A result that depends on variables is only reused under the
+     * same bindings, which the version of the scope table tells.
+     */
+    private static final int CONSTANT = -1;
+    private final IdentityHashMap<Operation, Folded> foldedOperations = new IdentityHashMap<>();
+    // The operation whose operands were skipped because its folded result is reused
+    private Operation reusedOperation;
+
+    private static final class Folded {
+        int version;
+        ExpressionType type;
+        long value;
+    }
 
     public EvalExpressions() {
-        variableValues = new HANLinkedList<>();
+        this(Prelude.EMPTY);
+    }
+
+    /**
+     * Creates an evaluator for stylesheets that can use the variables of a prelude
+     * @param prelude the variables that are in scope for every stylesheet
+     */
+    public EvalExpressions(Prelude prelude) {
+        variableValues = new ScopeTable<>();
+        this.prelude = prelude;
     }
 
     @Override
-    public void apply(AST ast) {
-        apply(ast.root, 0);
+    public AST apply(AST ast) {
+        reset();
+        walker.walk(ast.root, enterStatement, exitStatement);
+        return new AST((Stylesheet) popResult());
     }
 
-    public void apply(ASTNode node, int scope) {
-        enterScope(scope);
-        ArrayList<ASTNode> trashCan = new ArrayList<>(); // Used to store objects that need to be removed from the parent after for loop
-        for (ASTNode child : node.getChildren()) {
+    /**
+     * Starts evaluating a stylesheet one style rule at a time by evaluating its global variables.
+     * The globals stay in scope for every call to apply(Stylerule) until end is called.
+     * @param stylesheet the stylesheet to evaluate
+     * @return true if every global variable has a value
+     */
+    public boolean begin(Stylesheet stylesheet) {
+        reset();
+        enterGlobalScope();
+        for (ASTNode child : stylesheet.body) {
             if (child instanceof VariableAssignment) {
-                initializeVariable((VariableAssignment) child, scope);
-                trashCan.add(child);
-            } else if (child instanceof Declaration) {
-                evaluateDeclaration((Declaration) child, scope);
-            } else if (child instanceof IfClause) {
-                evaluateIfClause((IfClause) child, scope);
-                apply(child, scope + 1);
-            } else if (child instanceof Stylerule) {
-                apply(child, scope + 1);
+                VariableAssignment failedAssignment = initializeVariable((VariableAssignment) child);
+                if (failedAssignment != null) {
+                    failedGlobals.put(child, failedAssignment);
+                }
             }
         }
-        exitScope(scope);
-        emptyTrashcan(node, trashCan);
+        return errorCount == 0;
+    }
+
+    /**
+     * Evaluates one style rule of the stylesheet that was passed to begin
+     * @param stylerule the style rule to evaluate
+     * @return the evaluated style rule, or null if a value in it is out of range, see getFailed
+     */
+    public Stylerule apply(Stylerule stylerule) {
+        int errorsBefore = errorCount;
+        walker.walk(stylerule, enterStatement, exitStatement);
+        Stylerule evaluated = (Stylerule) popResult();
+        failed = errorCount == errorsBefore ? null : evaluated;
+        return failed == null ? evaluated : null;
+    }
+
+    // The style rule of the last apply that returned null, with an error on every declaration that is out of range
+    public Stylerule getFailed() {
+        return failed;
+    }
+
+    /**
+     * Ends the evaluation that was started with begin
+     * @param stylesheet the stylesheet with the evaluated style rules
+     * @return the stylesheet without its global variables, but for the ones begin found out of range
+     */
+    public Stylesheet end(Stylesheet stylesheet) {
+        exitScope();
+        ArrayList<ASTNode> body = withoutVariableAssignments(stylesheet.body);
+        return body == stylesheet.body ? stylesheet : stylesheet.withBody(body);
+    }
+
+    /**
+     * Returns the value of a variable that is in scope, such as a global between begin and end
+     * @param symbol the symbol id of the variable
+     * @return the value, or null when the variable is not in scope or has no value
+     */
+    public Literal getValue(int symbol) {
+        return variableValues.get(symbol);
+    }
+
+    private void reset() {
+        operandCount = 0;
+        resultCount = 0;
+        conditionCount = 0;
+        errorCount = 0;
+        foldedOperations.clear();
+        failedGlobals.clear();
+        failed = null;
     }
 
-    private void emptyTrashcan(ASTNode parent, ArrayList<ASTNode> trashCan) {
-        while (trashCan.size() > 0) {
-            if (parent instanceof Stylesheet) {
-                parent.removeChild(trashCan.remove(0));
-            } else if (parent instanceof Stylerule) {
-                ((Stylerule) parent).body.remove(trashCan.remove(0));
+    private final ASTVisitor<Boolean> enterStatement = new ASTVisitor<>() {
+        @Override
+        public Boolean visitNode(ASTNode node) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitStylesheet(Stylesheet stylesheet) {
+            enterGlobalScope();
+            return true;
+        }
+
+        @Override
+        public Boolean visitStylerule(Stylerule stylerule) {
+            enterScope();
+            return true;
+        }
+
+        @Override
+        public Boolean visitIfClause(IfClause ifClause) {
+            // The checker makes sure the condition is a boolean, which cannot be out of range
+            pushCondition(evaluateExpression(ifClause.conditionalExpression));
+            enterScope();
+            return true;
+        }
+
+        @Override
+        public Boolean visitElseClause(ElseClause elseClause) {
+            enterScope();
+            return true;
+        }
+    };
+
+    /*
+     * The AST is not changed, the evaluated tree is built bottom up instead. Every statement that is exited pushes
+     * its result: the node itself when nothing changed, a new node with the values filled in, or null for a
+     * variable assignment, whose value is in the scope now. A container takes the results of its children and
+     * only becomes a new node when one of them differs.
+     */
+    private final ASTVisitor<Void> exitStatement = new ASTVisitor<>() {
+        @Override
+        public Void visitNode(ASTNode node) {
+            pushResult(node);
+            return null;
+        }
+
+        @Override
+        public Void visitDeclaration(Declaration declaration) {
+            pushResult(evaluateDeclaration(declaration));
+            return null;
+        }
+
+        @Override
+        public Void visitVariableAssignment(VariableAssignment variableAssignment) {
+            // Null takes the assignment out of the body, unless it has to report its error
+            pushResult(initializeVariable(variableAssignment));
+            return null;
+        }
+
+        @Override
+        public Void visitStylesheet(Stylesheet stylesheet) {
+            exitScope();
+            ArrayList<ASTNode> body = popBody(stylesheet.body);
+            pushResult(body == stylesheet.body ? stylesheet : stylesheet.withBody(body));
+            return null;
+        }
+
+        @Override
+        public Void visitStylerule(Stylerule stylerule) {
+            exitScope();
+            ArrayList<ASTNode> body = popBody(stylerule.body);
+            // The selectors don't change
+            popResults(stylerule.selectors.size());
+            pushResult(body == stylerule.body ? stylerule : stylerule.withBody(body));
+            return null;
+        }
+
+        @Override
+        public Void visitIfClause(IfClause ifClause) {
+            exitScope();
+            ElseClause elseClause = ifClause.elseClause != null ? (ElseClause) popResult() : null;
+            ArrayList<ASTNode> body = popBody(ifClause.body);
+            if (ifClause.conditionalExpression != null) {
+                popResults(1);
             }
+            Literal condition = popCondition();
+            boolean changed = condition != ifClause.conditionalExpression || body != ifClause.body || elseClause != ifClause.elseClause;
+            pushResult(changed ? ifClause.with(condition, body, elseClause) : ifClause);
+            return null;
         }
-    }
 
-    private void evaluateIfClause(IfClause ifClause, int scope) {
-        ifClause.conditionalExpression = evaluateExpression(ifClause.conditionalExpression, scope);
+        @Override
+        public Void visitElseClause(ElseClause elseClause) {
+            exitScope();
+            ArrayList<ASTNode> body = popBody(elseClause.body);
+            pushResult(body == elseClause.body ? elseClause : elseClause.withBody(body));
+            return null;
+        }
+    };
+
+    private ArrayList<ASTNode> withoutVariableAssignments(ArrayList<ASTNode> body) {
+        for (ASTNode child : body) {
+            if (child instanceof VariableAssignment) {
+                ArrayList<ASTNode> statements = new ArrayList<>(body.size());
+                for (ASTNode statement : body) {
+                    if (!(statement instanceof VariableAssignment)) {
+                        statements.add(statement);
+                    } else if (failedGlobals.containsKey(statement)) {
+                        statements.add(failedGlobals.get(statement));
+                    }
+                }
+                return statements;
+            }
+        }
+        return body;
     }
 
-    private void evaluateDeclaration(Declaration declaration, int scope) {
-        declaration.expression = evaluateExpression(declaration.expression, scope);
+    // The evaluated declaration, or a copy with the error when its value is out of range (see ASTNode)
+    private Declaration evaluateDeclaration(Declaration declaration) {
+        Literal value = evaluateExpression(declaration.expression);
+        if (value != null) {
+            return value == declaration.expression ? declaration : declaration.withExpression(value);
+        } else if (outOfRange) {
+            Declaration failedDeclaration = declaration.withExpression(declaration.expression);
+            failedDeclaration.setError("The value of the expression is out of range.");
+            errorCount++;
+            return failedDeclaration;
+        }
+        return declaration;
     }
 
-    private void initializeVariable(VariableAssignment variableAssignment, int scope) {
+    // Returns a copy of the assignment with the error when its value is out of range, null otherwise
+    private VariableAssignment initializeVariable(VariableAssignment variableAssignment) {
         Expression expression = variableAssignment.expression;
         VariableReference reference = variableAssignment.name;
-        variableValues.get(scope).put(reference.name, evaluateExpression(expression, scope));
+        Literal value = evaluateExpression(expression);
+        VariableAssignment failedAssignment = null;
+        if (value == null && outOfRange) {
+            failedAssignment = variableAssignment.withExpression(expression);
+            failedAssignment.setError("The value of the expression is out of range.");
+            errorCount++;
+        }
+        // A variable without a value makes every expression that uses it undefined, without another error
+        variableValues.put(reference.symbol, value);
+        return failedAssignment;
     }
 
-    private Literal evaluateExpression(Expression expression, int scope) {
-        if (expression instanceof Literal) {
+    // The value of the expression, or null when it is undefined or out of range
+    private Literal evaluateExpression(Expression expression) {
+        outOfRange = false;
+        if (expression == null) {
+            return null;
+        } else if (expression instanceof Literal) {
             return (Literal) expression;
         } else if (expression instanceof VariableReference) {
-            return getLiteralFromVariable((VariableReference) expression, scope);
-        } else if (expression instanceof Operation) {
-            return getLiteralFromOperation((Operation) expression, scope);
-        } else {
-            return null;
+            return getLiteralFromVariable((VariableReference) expression);
+        }
+        int base = operandCount;
+        walker.walk(expression, reuseFolded, expressionValues);
+        Literal literal = null;
+        if (operandCount > base) {
+            ExpressionType type = popType();
+            literal = literalOf(type, operandValues[operandCount]);
         }
+        operandCount = base;
+        return literal;
     }
 
-    private Literal getLiteralFromVariable(VariableReference variableReference, int scope) {
-        Literal literal;
-        for (int i = 0; i <= scope; i++) {
-            literal = variableValues.get(i).get(variableReference.name);
-            if (literal != null) {
-                return literal;
+    private final ASTVisitor<Boolean> reuseFolded = new ASTVisitor<>() {
+        @Override
+        public Boolean visitOperation(Operation operation) {
+            Folded folded = foldedOperations.get(operation);
+            if (folded != null && (folded.version == CONSTANT || folded.version == variableValues.getVersion())) {
+                reusedOperation = operation;
+                return false;
             }
+            return true;
         }
-        return null;
-    }
+    };
 
-    private Literal getLiteralFromOperation(Operation operation, int scope) {
-        Expression leftExpression = operation.lhs;
-        Expression rightExpression = operation.rhs;
+    private final ASTVisitor<Void> expressionValues = new ASTVisitor<>() {
+        @Override
+        public Void visitBoolLiteral(BoolLiteral literal) {
+            push(ExpressionType.BOOL, literal.value ? 1 : 0, false);
+            return null;
+        }
 
-        // If either of the expressions is still an operation, process them again.
-        if (leftExpression instanceof Operation) {
-            leftExpression = getLiteralFromOperation((Operation) leftExpression, scope);
+        @Override
+        public Void visitColorLiteral(ColorLiteral literal) {
+            push(ExpressionType.COLOR, literal.value, false);
+            return null;
         }
-        if (rightExpression instanceof Operation) {
-            rightExpression = getLiteralFromOperation((Operation) rightExpression, scope);
+
+        @Override
+        public Void visitPercentageLiteral(PercentageLiteral literal) {
+            push(ExpressionType.PERCENTAGE, literal.value, false);
+            return null;
         }
 
-        // If either of the expressions in a variable reference, get the variable value.
-        if (leftExpression instanceof VariableReference) {
-            leftExpression = getLiteralFromVariable((VariableReference) leftExpression, scope);
+        @Override
+        public Void visitPixelLiteral(PixelLiteral literal) {
+            push(ExpressionType.PIXEL, literal.value, false);
+            return null;
         }
-        if (rightExpression instanceof VariableReference) {
-            rightExpression = getLiteralFromVariable((VariableReference) rightExpression, scope);
+
+        @Override
+        public Void visitScalarLiteral(ScalarLiteral literal) {
+            push(ExpressionType.SCALAR, literal.value, false);
+            return null;
         }
 
-        if (operation instanceof MultiplyOperation) {
-            return getMultipliedValue(leftExpression, rightExpression);
-        } else if (operation instanceof AddOperation) {
-            return getAddedValue(leftExpression, rightExpression);
-        } else if (operation instanceof SubtractOperation) {
-            return getSubtractedValue(leftExpression, rightExpression);
-        } else {
+        @Override
+        public Void visitVariableReference(VariableReference variableReference) {
+            Literal value = getLiteralFromVariable(variableReference);
+            if (value == null) {
+                push(ExpressionType.UNDEFINED, 0, true);
+            } else {
+                value.accept(this);
+                operandUsesVariables[operandCount - 1] = true;
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAddOperation(AddOperation operation) {
+            if (!pushReused(operation)) {
+                foldAddition(operation, false);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitSubtractOperation(SubtractOperation operation) {
+            if (!pushReused(operation)) {
+                foldAddition(operation, true);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitMultiplyOperation(MultiplyOperation operation) {
+            if (!pushReused(operation)) {
+                foldMultiplication(operation);
+            }
             return null;
         }
+    };
+
+    private Literal getLiteralFromVariable(VariableReference variableReference) {
+        return variableValues.get(variableReference.symbol);
     }
 
-    private Literal getMultipliedValue(Expression leftExpression, Expression rightExpression) {
-        int value = getLiteralValue((Literal) leftExpression) * getLiteralValue((Literal) rightExpression);
+    private void foldAddition(Operation operation, boolean subtract) {
+        popOperands();
+        if (leftType == ExpressionType.UNDEFINED || rightType == ExpressionType.UNDEFINED) {
+            pushFolded(operation, ExpressionType.UNDEFINED, 0);
+        } else if (leftType == ExpressionType.COLOR) {
+            int color = (int) leftValue;
+            int result;
+            // Color plus or minus color works per channel, plus or minus a percentage lightens or darkens
+            if (rightType == ExpressionType.COLOR) {
+                result = subtract ? ColorOperations.subtract(color, (int) rightValue) : ColorOperations.add(color, (int) rightValue);
+            } else {
+                result = subtract ? ColorOperations.darken(color, (int) rightValue) : ColorOperations.lighten(color, (int) rightValue);
+            }
+            pushFolded(operation, ExpressionType.COLOR, result);
+        } else {
+            // When this code is reached, both operands have the same type
+            pushFolded(operation, leftType, subtract ? leftValue - rightValue : leftValue + rightValue);
+        }
+    }
 
-        Literal literal;
-        // If the left literal is a scalar, but right is not, make a new literal based on the right literal's type.
-        // Else, just make a new literal with the value.
-        if (leftExpression instanceof ScalarLiteral && !(rightExpression instanceof ScalarLiteral)) {
-            literal = literalTypeFactory(rightExpression, value);
+    private void foldMultiplication(Operation operation) {
+        popOperands();
+        if (leftType == ExpressionType.UNDEFINED || rightType == ExpressionType.UNDEFINED) {
+            pushFolded(operation, ExpressionType.UNDEFINED, 0);
+        } else if (leftType == ExpressionType.COLOR) {
+            // A color can only be multiplied by a scalar, the checker makes sure of that
+            pushFolded(operation, ExpressionType.COLOR, ColorOperations.multiply((int) leftValue, (int) rightValue));
+        } else if (rightType == ExpressionType.COLOR) {
+            pushFolded(operation, ExpressionType.COLOR, ColorOperations.multiply((int) rightValue, (int) leftValue));
         } else {
-            literal = literalTypeFactory(leftExpression, value);
+            // Scalar times a unit keeps the unit
+            ExpressionType type = leftType == ExpressionType.SCALAR ? rightType : leftType;
+            pushFolded(operation, type, leftValue * rightValue);
         }
-        return literal;
     }
 
-    private Literal getAddedValue(Expression leftExpression, Expression rightExpression) {
-        int value = getLiteralValue((Literal) leftExpression) + getLiteralValue((Literal) rightExpression);
-        return literalTypeFactory(leftExpression, value); // When this code is reached, both expressions should be the same literal type
+    private boolean pushReused(Operation operation) {
+        if (operation != reusedOperation) {
+            return false;
+        }
+        reusedOperation = null;
+        Folded folded = foldedOperations.get(operation);
+        push(folded.type, folded.value, folded.version != CONSTANT);
+        return true;
     }
 
-    private Literal getSubtractedValue(Expression leftExpression, Expression rightExpression) {
-        int value = getLiteralValue((Literal) leftExpression) - getLiteralValue((Literal) rightExpression);
-        return literalTypeFactory(leftExpression, value); // When this code is reached, both expressions should be the same literal type
+    // Pushes the value of an operation whose operands have just been popped and remembers it for the next occurrence
+    private void pushFolded(Operation operation, ExpressionType type, long value) {
+        boolean usesVariables = poppedUsesVariables;
+        // Both operands fit an int, so the long result is exact and only has to fit an int itself
+        if (type != ExpressionType.COLOR && value != (int) value) {
+            outOfRange = true;
+            type = ExpressionType.UNDEFINED;
+            value = 0;
+        }
+        // An undefined result is not remembered, so every statement that uses it reports its own error
+        if (type != ExpressionType.UNDEFINED) {
+            Folded folded = foldedOperations.computeIfAbsent(operation, key -> new Folded());
+            folded.version = usesVariables ? variableValues.getVersion() : CONSTANT;
+            folded.type = type;
+            folded.value = value;
+        }
+        push(type, value, usesVariables);
     }
 
-    private Literal literalTypeFactory(Expression literal, int value) {
-        if (literal instanceof PixelLiteral) {
-            return new PixelLiteral(value);
-        } else if (literal instanceof PercentageLiteral) {
-            return new PercentageLiteral(value);
-        } else if (literal instanceof ScalarLiteral) {
-            return new ScalarLiteral(value);
-        } else {
-            return null;
+    // Literals for computed values are shared per value within a compilation, see the literal maps
+    private Literal literalOf(ExpressionType type, long value) {
+        switch (type) {
+            case PIXEL:
+                return pixelLiterals.computeIfAbsent((int) value, PixelLiteral::new);
+            case PERCENTAGE:
+                return percentageLiterals.computeIfAbsent((int) value, PercentageLiteral::new);
+            case SCALAR:
+                return scalarLiterals.computeIfAbsent((int) value, ScalarLiteral::new);
+            case COLOR:
+                return colorLiterals.computeIfAbsent((int) value, ColorLiteral::new);
+            case BOOL:
+                return new BoolLiteral(value != 0);
+            default:
+                return null;
         }
     }
 
-    private int getLiteralValue(Literal literal) {
-        if (literal instanceof PercentageLiteral) {
-            return ((PercentageLiteral) literal).value;
-        } else if (literal instanceof PixelLiteral) {
-            return ((PixelLiteral) literal).value;
-        } else if (literal instanceof ScalarLiteral) {
-            return ((ScalarLiteral) literal).value;
-        } else {
-            return 0;
+    private void push(ExpressionType type, long value, boolean usesVariables) {
+        if (operandCount == operandTypes.length) {
+            operandTypes = Arrays.copyOf(operandTypes, operandCount * 2);
+            operandValues = Arrays.copyOf(operandValues, operandCount * 2);
+            operandUsesVariables = Arrays.copyOf(operandUsesVariables, operandCount * 2);
+        }
+        operandTypes[operandCount] = type;
+        operandValues[operandCount] = value;
+        operandUsesVariables[operandCount] = usesVariables;
+        operandCount++;
+        poppedUsesVariables = false;
+    }
+
+    // Pops the right operand and, when there is one below it, the left operand
+    private void popOperands() {
+        poppedUsesVariables = false;
+        rightType = popType();
+        rightValue = operandValues[operandCount];
+        leftType = popType();
+        leftValue = operandValues[operandCount];
+    }
+
+    private ExpressionType popType() {
+        // An operation with a missing operand can only come from a partial parse, treat the operand as undefined
+        if (operandCount == 0) {
+            operandValues[0] = 0;
+            return ExpressionType.UNDEFINED;
         }
+        operandCount--;
+        poppedUsesVariables |= operandUsesVariables[operandCount];
+        return operandTypes[operandCount];
     }
 
-    private void enterScope(int scope) {
-        variableValues.insert(scope, new HashMap<>());
+    private void pushResult(ASTNode result) {
+        if (resultCount == results.length) {
+            results = Arrays.copyOf(results, resultCount * 2);
+        }
+        results[resultCount++] = result;
+    }
+
+    private ASTNode popResult() {
+        ASTNode result = results[--resultCount];
+        results[resultCount] = null;
+        return result;
+    }
+
+    private void popResults(int count) {
+        while (count-- > 0) {
+            popResult();
+        }
+    }
+
+    // Takes the results of the statements in a body, which is returned as is when none of them changed
+    private ArrayList<ASTNode> popBody(ArrayList<ASTNode> body) {
+        int start = resultCount - body.size();
+        boolean changed = false;
+        for (int i = 0; i < body.size() && !changed; i++) {
+            changed = results[start + i] != body.get(i);
+        }
+        ArrayList<ASTNode> statements = body;
+        if (changed) {
+            statements = new ArrayList<>(body.size());
+            for (int i = start; i < resultCount; i++) {
+                if (results[i] != null) {
+                    statements.add(results[i]);
+                }
+            }
+        }
+        popResults(body.size());
+        return statements;
+    }
+
+    private void pushCondition(Literal condition) {
+        if (conditionCount == conditions.length) {
+            conditions = Arrays.copyOf(conditions, conditionCount * 2);
+        }
+        conditions[conditionCount++] = condition;
+    }
+
+    private Literal popCondition() {
+        Literal condition = conditions[--conditionCount];
+        conditions[conditionCount] = null;
+        return condition;
+    }
+
+    private void enterScope() {
+        variableValues.enterScope();
+    }
+
+    // The scope of the globals, which starts with the variables of the prelude
+    private void enterGlobalScope() {
+        variableValues.enterScope();
+        for (int i = 0; i < prelude.size(); i++) {
+            int symbol = prelude.getSymbol(i);
+            variableValues.put(symbol, prelude.getValue(symbol));
+        }
     }
 
-    private void exitScope(int scope) {
-        variableValues.delete(scope);
+    private void exitScope() {
+        variableValues.exitScope();
     }
 }
@@ -10,69 +10,99 @@ import java.util.ArrayList;
 public class RemoveIf implements Transform {
 
     ArrayList<ASTNode> declarations;
+    // The flattened style rule of the last style rule that was walked
+    private Stylerule result;
+    private final ASTWalker walker = new ASTWalker();
 
     @Override
-    public void apply(AST ast) {
-        declarations = new ArrayList<>();
-        apply(ast.root);
+    public AST apply(AST ast) {
+        ArrayList<ASTNode> body = new ArrayList<>(ast.root.body.size());
+        for (ASTNode child : ast.root.body) {
+            body.add(child instanceof Stylerule ? apply((Stylerule) child) : child);
+        }
+        return new AST(ast.root.withBody(body));
     }
 
-    public void apply(ASTNode node) {
-        ArrayList<ASTNode> trashCan = new ArrayList<>(); // Used to store objects that need to be removed from the parent after for loop
-        ArrayList<ASTNode> children = node.getChildren();
-        for (ASTNode child : children) {
-            if (child instanceof IfClause) {
-                removeIfClause((IfClause) child);
-                trashCan.add(child);
-            } else if (child instanceof Declaration) {
-                // Saving and removing non if-clause declaration to add them in the correct order at the end.
-                declarations.add(child);
-                trashCan.add(child);
-            } else if (child instanceof Stylerule) {
-                apply(child);
-                emptyTrashcan(node, trashCan);
-            }
-        }
-        emptyTrashcan(node, trashCan);
-        addDeclarationsToParent(node);
+    /**
+     * Flattens the if clauses of a style rule, which is left unchanged
+     * @param stylerule the style rule with evaluated conditions
+     * @return the style rule with the declarations of the active branches in its body
+     */
+    public Stylerule apply(Stylerule stylerule) {
+        declarations = null;
+        walker.walk(stylerule, enter, exit);
+        return result;
     }
 
-    private void emptyTrashcan(ASTNode parent, ArrayList<ASTNode> trashCan) {
-        while (trashCan.size() > 0) {
-            if (parent instanceof Stylerule) {
-                // Casting to style rule to access children, since there is no other way to remove specific children in Stylerule
-                ((Stylerule) parent).body.remove(trashCan.remove(0));
-            }
+    /*
+     * Walks into the active branch of every if clause only. Every other node that is reached inside a style rule
+     * is collected in order, which gives the flattened body of that style rule.
+     */
+    private final ASTVisitor<Boolean> enter = new ASTVisitor<>() {
+        @Override
+        public Boolean visitStylerule(Stylerule stylerule) {
+            declarations = new ArrayList<>();
+            return true;
         }
-    }
 
-    private void addDeclarationsToParent(ASTNode parent) {
-        while (declarations.size() > 0) {
-            parent.addChild(declarations.remove(0));
+        @Override
+        public Boolean visitSelector(Selector selector) {
+            return false;
         }
-    }
 
-    private void removeIfClause(IfClause ifClause) {
-        // If clauses can only have booleans for expressions at this stage, so casting to BoolLiteral is always possible.
-        if (((BoolLiteral) ifClause.conditionalExpression).value) {
-            scanBodyForIfClauses(ifClause.body);
-        } else if (ifClause.elseClause != null) {
-            removeElseClause(ifClause.elseClause);
+        @Override
+        public Boolean visitExpression(Expression expression) {
+            return false;
         }
-    }
 
-    private void removeElseClause(ElseClause elseClause) {
-        scanBodyForIfClauses(elseClause.body);
-    }
+        @Override
+        public Boolean visitIfClause(IfClause ifClause) {
+            return isActive(walker.getParent());
+        }
+
+        @Override
+        public Boolean visitElseClause(ElseClause elseClause) {
+            return !isActive(walker.getParent());
+        }
+
+        @Override
+        public Boolean visitNode(ASTNode node) {
+            if (declarations != null && isActive(walker.getParent())) {
+                declarations.add(node);
+            }
+            return false;
+        }
+    };
+
+    private final ASTVisitor<Void> exit = new ASTVisitor<>() {
+        @Override
+        public Void visitStylerule(Stylerule stylerule) {
+            result = isSameBody(declarations, stylerule.body) ? stylerule : stylerule.withBody(declarations);
+            declarations = null;
+            return null;
+        }
+    };
 
-    private void scanBodyForIfClauses(ArrayList<ASTNode> body) {
-        for (ASTNode child : body) {
-            if (child instanceof IfClause) {
-                removeIfClause((IfClause) child);
-            } else {
-                declarations.add(child);
+    // A style rule without if clauses keeps its body, and with it the original node
+    private boolean isSameBody(ArrayList<ASTNode> declarations, ArrayList<ASTNode> body) {
+        if (declarations.size() != body.size()) {
+            return false;
+        }
+        for (int i = 0; i < body.size(); i++) {
+            if (declarations.get(i) != body.get(i)) {
+                return false;
             }
         }
+        return true;
+    }
+
+    // Whether the body of the given parent ends up in the style rule. Only the body of a false if clause doesn't.
+    private boolean isActive(ASTNode parent) {
+        if (parent instanceof IfClause) {
+            // If clauses can only have booleans for expressions at this stage, so casting to BoolLiteral is always possible.
+            return ((BoolLiteral) ((IfClause) parent).conditionalExpression).value;
+        }
+        return true;
     }
 
 }
@@ -2,6 +2,10 @@ package nl.han.ica.icss.transforms;
 
 import nl.han.ica.icss.ast.AST;
 
+/*
+ * A transform leaves the given AST unchanged and returns the transformed AST, which shares every node
+ * that the transform did not change.
+ */
 public interface Transform {
-    void apply(AST ast);
+    AST apply(AST ast);
 }
@@ -0,0 +1,250 @@
+package nl.han.ica.icss.worker;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import nl.han.ica.icss.CancellationToken;
+import nl.han.ica.icss.CompileService;
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.symbols.Prelude;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles stylesheets for build tools, either once from the command line or as a persistent worker.
+ *
+ * The arguments are pairs of --input and --output paths and optionally a --prelude with global variables for
+ * every input (see Pipeline.compilePrelude), and --timeout_ms with the time the inputs may take together, after
+ * which the inputs that are left fail with a timeout error. With --persistent_worker the process reads work requests from stdin
+ * and writes a response for every request to stdout, as JSON objects of one line each, in the form of the JSON
+ * worker protocol of Bazel: a request has "arguments" and a "requestId", a response an "exitCode", an "output"
+ * and the "requestId". Requests with an id other than 0 are compiled concurrently.
+ *
+ * A worker stays warm between requests: Antlr's prediction caches are shared by all parsers in the process,
+ * preludes are compiled once and kept until their file changes, and inputs that didn't change since an earlier
+ * request are not compiled again (see CompileService).
+ *
+ * The names in the stylesheets are interned for the lifetime of the process (see Symbols), so a worker holds on to
+ * every distinct property, selector and variable name of the inputs it compiled. That is the vocabulary of the
+ * build, which doesn't grow with the number of requests.
+ */
+public class Worker {
+
+    private static final class CachedPrelude {
+        final FileTime modified;
+        final long size;
+        final CompileService service;
+
+        CachedPrelude(FileTime modified, long size, Prelude prelude) {
+            this.modified = modified;
+            this.size = size;
+            this.service = new CompileService(prelude, CACHE_WEIGHT);
+        }
+    }
+
+    // Characters of CSS and errors to keep for the inputs of every prelude, see CompileService
+    private static final long CACHE_WEIGHT = 1 << 24;
+
+    private final ConcurrentHashMap<Path, CachedPrelude> preludes = new ConcurrentHashMap<>();
+    private final CompileService withoutPrelude = new CompileService(CACHE_WEIGHT);
+
+    public static void main(String[] args) throws IOException {
+        Worker worker = new Worker();
+        if (Arrays.asList(args).contains("--persistent_worker")) {
+            worker.serve(System.in, System.out, Runtime.getRuntime().availableProcessors());
+        } else {
+            StringBuilder output = new StringBuilder();
+            int exitCode = worker.compile(Arrays.asList(args), output);
+            System.err.print(output);
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Handles work requests until the input ends, and returns once every request has been answered
+     * @param in the stream with the requests
+     * @param out the stream for the responses
+     * @param threads the number of requests that are compiled at the same time
+     * @throws IOException when reading the requests fails
+     */
+    public void serve(InputStream in, OutputStream out, int threads) throws IOException {
+        PrintStream responses = new PrintStream(out, false, StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                // Gson throws a RuntimeException for anything that isn't a request, the worker goes on with the next
+                int id = 0;
+                List<String> arguments = new ArrayList<>();
+                try {
+                    JsonObject request = JsonParser.parseString(line).getAsJsonObject();
+                    if (request.has("requestId")) {
+                        id = request.get("requestId").getAsInt();
+                    }
+                    if (request.has("arguments")) {
+                        for (JsonElement argument : request.getAsJsonArray("arguments")) {
+                            arguments.add(argument.getAsString());
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    respond(responses, id, 1, "Invalid work request: " + e.getMessage());
+                    continue;
+                }
+                int requestId = id;
+                Runnable work = () -> {
+                    StringBuilder output = new StringBuilder();
+                    int exitCode;
+                    try {
+                        exitCode = compile(arguments, output);
+                    } catch (RuntimeException e) {
+                        output.append(e).append('\n');
+                        exitCode = 1;
+                    }
+                    respond(responses, requestId, exitCode, output.toString());
+                };
+                // Id 0 means the build tool sends one request at a time
+                if (requestId == 0) {
+                    work.run();
+                } else {
+                    executor.execute(work);
+                }
+            }
+        } finally {
+            // Every request gets its response before serve returns
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Compiles the inputs in the arguments
+     * @param arguments pairs of --input and --output paths and an optional --prelude and --timeout_ms
+     * @param output receives the errors
+     * @return the exit code, 0 when every input compiled
+     */
+    public int compile(List<String> arguments, StringBuilder output) {
+        List<Path> inputs = new ArrayList<>();
+        List<Path> outputs = new ArrayList<>();
+        Path preludePath = null;
+        long timeoutMillis = -1;
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i);
+            if (argument.equals("--persistent_worker")) {
+                continue;
+            }
+            if (i + 1 == arguments.size()) {
+                output.append("Missing value for ").append(argument).append('\n');
+                return 2;
+            }
+            String value = arguments.get(++i);
+            switch (argument) {
+                case "--input":
+                    inputs.add(Paths.get(value));
+                    break;
+                case "--output":
+                    outputs.add(Paths.get(value));
+                    break;
+                case "--prelude":
+                    preludePath = Paths.get(value);
+                    break;
+                case "--timeout_ms":
+                    try {
+                        timeoutMillis = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        timeoutMillis = -1;
+                    }
+                    if (timeoutMillis < 0) {
+                        output.append("Invalid timeout ").append(value).append('\n');
+                        return 2;
+                    }
+                    break;
+                default:
+                    output.append("Unknown argument ").append(argument).append('\n');
+                    return 2;
+            }
+        }
+        if (inputs.size() != outputs.size()) {
+            output.append("Every --input needs an --output\n");
+            return 2;
+        }
+
+        CancellationToken cancellation = timeoutMillis >= 0
+                ? CancellationToken.withTimeout(Duration.ofMillis(timeoutMillis)) : new CancellationToken();
+        CompileService service;
+        try {
+            service = preludePath != null ? loadPrelude(preludePath) : withoutPrelude;
+        } catch (IOException | IllegalArgumentException e) {
+            output.append(preludePath).append(": ").append(e.getMessage()).append('\n');
+            return 1;
+        }
+        int exitCode = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            try {
+                CompileService.Result result = service.compile(Files.readString(inputs.get(i)), cancellation);
+                String css = result.getCss();
+                if (css == null) {
+                    for (String error : result.getErrors()) {
+                        output.append(inputs.get(i)).append(": ").append(error).append('\n');
+                    }
+                    exitCode = 1;
+                } else {
+                    Files.writeString(outputs.get(i), css);
+                }
+            } catch (IOException e) {
+                output.append(inputs.get(i)).append(": ").append(e).append('\n');
+                exitCode = 1;
+            }
+        }
+        return exitCode;
+    }
+
+    // The service for the prelude of the file, which is compiled again only when the file changed
+    private CompileService loadPrelude(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        FileTime modified = Files.getLastModifiedTime(key);
+        long size = Files.size(key);
+        CachedPrelude cached = preludes.get(key);
+        if (cached == null || !cached.modified.equals(modified) || cached.size != size) {
+            cached = new CachedPrelude(modified, size, Pipeline.compilePrelude(Files.readString(key)));
+            preludes.put(key, cached);
+        }
+        return cached.service;
+    }
+
+    private static void respond(PrintStream responses, int requestId, int exitCode, String output) {
+        JsonObject response = new JsonObject();
+        response.addProperty("exitCode", exitCode);
+        response.addProperty("output", output);
+        response.addProperty("requestId", requestId);
+        synchronized (responses) {
+            responses.println(response);
+            responses.flush();
+        }
+    }
+}
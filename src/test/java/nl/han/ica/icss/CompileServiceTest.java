@@ -0,0 +1,64 @@
+package nl.han.ica.icss;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class CompileServiceTest {
+
+	@Test
+	void testCompileServiceCachesAndCoalesces() throws Exception {
+		CompileService service = new CompileService(1 << 20);
+		String source = Sources.read("level3.icss");
+		CompileService.Result first = service.compile(source);
+		assertEquals(Sources.compile(source), first.getCss());
+		assertSame(first, service.compile(source));
+		assertEquals(1, service.getHitCount());
+		assertEquals(1, service.getMissCount());
+		assertFalse(service.compile("p { color: 1px; }").getErrors().isEmpty());
+
+		// Concurrent requests for a new source compile it once
+		String large = source + "\nli { width: ParWidth + 1px; }".repeat(5000);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<CompileService.Result>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(() -> service.compile(large)));
+			}
+			for (Future<CompileService.Result> result : results) {
+				assertSame(results.get(0).get(), result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(3, service.getMissCount());
+		assertEquals(7, service.getHitCount() + service.getMissCount() + service.getCoalescedCount());
+
+		// Results are evicted by weight, least recently used first
+		CompileService small = new CompileService(400);
+		small.compile("p { width: 1px; }");
+		small.compile("a { width: 2px; }");
+		small.compile("p { width: 1px; }");
+		small.compile("b { width: 3px; }");
+		assertEquals(1, small.getEvictionCount());
+		small.compile("p { width: 1px; }");
+		assertEquals(2, small.getHitCount());
+		assertTrue(small.getWeight() <= 400);
+	}
+
+	@Test
+	void testTimedOutResultIsNotKept() {
+		CompileService service = new CompileService(1 << 20);
+		assertTrue(service.compile("p { width: 1px; }", CancellationToken.withTimeout(Duration.ZERO)).isCancelled());
+		CompileService.Result result = service.compile("p { width: 1px; }");
+		assertFalse(result.isCancelled());
+		assertEquals("p {\n  width: 1px;\n}\n\n", result.getCss());
+		assertEquals(2, service.getMissCount());
+	}
+}
@@ -0,0 +1,351 @@
+package nl.han.ica.icss;
+
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.Declaration;
+import nl.han.ica.icss.ast.Expression;
+import nl.han.ica.icss.ast.IfClause;
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.Stylesheet;
+import nl.han.ica.icss.ast.literals.BoolLiteral;
+import nl.han.ica.icss.ast.literals.PixelLiteral;
+import nl.han.ica.icss.ast.operations.AddOperation;
+import nl.han.ica.icss.ast.selectors.TagSelector;
+import nl.han.ica.icss.events.CompileEvent;
+import nl.han.ica.icss.events.PhaseEvent;
+import nl.han.ica.icss.symbols.Symbols;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class PipelineTest {
+
+	String compileFused(String input) {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(input);
+		String css = pipeline.compile();
+		assertNotNull(css, pipeline.getErrors().toString());
+		return css;
+	}
+
+	@Test
+	void testGenerateLevel0() throws IOException {
+		String expected = "p {\n  background-color: #ffffff;\n  width: 500px;\n}\n\n"
+				+ "a {\n  color: #ff0000;\n}\n\n"
+				+ "#menu {\n  width: 520px;\n}\n\n"
+				+ ".menu {\n  color: #000000;\n}\n\n";
+		assertEquals(expected, Sources.compile(Sources.read("level0.icss")));
+		assertEquals(expected, Sources.compile(Sources.read("level1.icss")));
+		assertEquals(expected, Sources.compile(Sources.read("level2.icss")));
+	}
+
+	@Test
+	void testGenerateLevel3() throws IOException {
+		String expected = "p {\n  background-color: #ffffff;\n  width: 500px;\n  color: #124532;\n"
+				+ "  background-color: #000000;\n  height: 20px;\n}\n\n"
+				+ "a {\n  color: #ff0000;\n}\n\n"
+				+ "#menu {\n  width: 520px;\n}\n\n"
+				+ ".menu {\n  color: #000000;\n  background-color: #ff0000;\n}\n\n";
+		assertEquals(expected, Sources.compile(Sources.read("level3.icss")));
+		assertEquals(expected, compileFused(Sources.read("level3.icss")));
+	}
+
+	@Test
+	void testElseClauseIsEvaluated() {
+		String input = "A := 10px;\nF := FALSE;\n"
+				+ "p { if[F] { width: 1px; } else { W := A * 2; width: W + 5px; } }";
+		assertEquals("p {\n  width: 25px;\n}\n\n", Sources.compile(input));
+	}
+
+	@Test
+	void testColorArithmetic() {
+		String input = "Base := #102030;\n"
+				+ "p { color: Base + #0f0f0f; background-color: Base * 2; }\n"
+				+ "a { color: #000000 + 50%; background-color: #ffffff - 100%; }";
+		assertEquals("p {\n  color: #1f2f3f;\n  background-color: #204060;\n}\n\n"
+				+ "a {\n  color: #7f7f7f;\n  background-color: #000000;\n}\n\n", Sources.compile(input));
+	}
+
+	@Test
+	void testPropertiesFromSchema() {
+		String input = "p { margin-top: 4px * 2; z-index: 3; opacity: 50%; }";
+		assertEquals("p {\n  margin-top: 8px;\n  z-index: 3;\n  opacity: 50%;\n}\n\n", Sources.compile(input));
+	}
+
+	@Test
+	void testDeepExpressionDoesNotOverflowTheStack() {
+		StringBuilder input = new StringBuilder("A := 1px;\np { width: A");
+		for (int i = 1; i < 20000; i++) {
+			input.append(" + A");
+		}
+		input.append("; }");
+		assertEquals("p {\n  width: 20000px;\n}\n\n", Sources.compile(input.toString()));
+	}
+
+	// A chain lhs + 1px + 2px + ... of new nodes, nothing is shared with another chain
+	private static Expression chain(int length, int last) {
+		Expression expression = new PixelLiteral(0);
+		for (int i = 1; i < length; i++) {
+			expression = (Expression) new AddOperation().addChild(expression).addChild(new PixelLiteral(i == length - 1 ? last : i));
+		}
+		return expression;
+	}
+
+	@Test
+	void testDeepCopiesAreComparedWithoutOverflowingTheStack() {
+		Expression expression = chain(200000, 1);
+		Expression copy = chain(200000, 1);
+		assertEquals(expression.hashCode(), copy.hashCode());
+		assertEquals(expression, copy);
+		assertNotEquals(chain(200000, 2), expression);
+		Expression longer = (Expression) new AddOperation().addChild(chain(200000, 1)).addChild(new PixelLiteral(0));
+		assertNotEquals(expression, longer);
+	}
+
+	// A style rule with an if clause nested depth times around a declaration, of new nodes
+	private static Stylerule nestedIfs(int depth, int width) {
+		ArrayList<ASTNode> body = new ArrayList<>();
+		body.add(new Declaration("width").addChild(new PixelLiteral(width)));
+		for (int i = 0; i < depth; i++) {
+			body = new ArrayList<>(List.of(new IfClause(new BoolLiteral(true), body)));
+		}
+		return new Stylerule(new TagSelector("p"), body);
+	}
+
+	@Test
+	void testDeepStatementsAreComparedWithoutOverflowingTheStack() {
+		AST ast = new AST(new Stylesheet(new ArrayList<>(List.of(nestedIfs(100000, 1)))));
+		AST copy = new AST(new Stylesheet(new ArrayList<>(List.of(nestedIfs(100000, 1)))));
+		assertEquals(ast.hashCode(), copy.hashCode());
+		assertEquals(ast, copy);
+		assertNotEquals(nestedIfs(100000, 2), nestedIfs(100000, 1));
+		assertNotEquals(nestedIfs(100001, 1), nestedIfs(100000, 1));
+	}
+
+	@Test
+	void testSharedExpressionsFollowTheirScope() {
+		String input = "p { W := 2px; width: W + 1px; }\na { W := 3px; width: W + 1px; }";
+		assertEquals("p {\n  width: 3px;\n}\n\na {\n  width: 4px;\n}\n\n", Sources.compile(input));
+
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString("p { W := 2px; width: W + 1px; }\na { width: W + 1px; }");
+		assertFalse(pipeline.check());
+		assertEquals(1, pipeline.getErrors().size());
+	}
+
+	@Test
+	void testVariablesFarApartInTheSymbolTable() {
+		// Names in between push the ids of the variables onto different pages of the scope tables
+		Symbols.intern("Near");
+		for (int i = 0; i < 1000; i++) {
+			Symbols.intern("Filler" + i);
+		}
+		String input = "Near := 1px;\nFar := 2px;\np { Inner := Far; width: Near + Inner; }\na { width: Inner; }";
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(input);
+		assertFalse(pipeline.check());
+		assertEquals(1, pipeline.getErrors().size());
+		assertEquals("p {\n  width: 3px;\n}\n\n", Sources.compile("Near := 1px;\nFar := 2px;\np { Inner := Far; width: Near + Inner; }"));
+	}
+
+	@Test
+	void testPhasesLeaveTheParsedASTAsItIs() {
+		String input = "W := 1px + TRUE;\np { width: 2px + 3px; height: 2px + 3px; color: 1px; }\n"
+				+ "a { if [2px] { width: 1px; } }\nb { width: 100000px * 100000; }";
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(input);
+		AST parsed = pipeline.getParsedAST();
+		Declaration color = (Declaration) ((Stylerule) parsed.root.body.get(1)).body.get(2);
+		Expression colorExpression = color.expression;
+		assertFalse(pipeline.check());
+		Pipeline reparsed = new Pipeline();
+		reparsed.parseString(input);
+		assertEquals(reparsed.getParsedAST(), parsed);
+		assertSame(colorExpression, color.expression);
+		assertTrue(parsed.getErrors().isEmpty());
+		assertEquals(3, pipeline.getCheckedAST().getErrors().size());
+		// The style rule without errors is shared by both trees
+		assertSame(parsed.root.body.get(3), pipeline.getCheckedAST().root.body.get(3));
+
+		// Values out of range are reported on the evaluated tree, in a style rule and in a global
+		pipeline.parseString("b { width: 100000px * 100000; }");
+		assertTrue(pipeline.check());
+		AST checked = pipeline.getCheckedAST();
+		pipeline.transform();
+		assertFalse(pipeline.isTransformed());
+		assertTrue(checked.getErrors().isEmpty());
+		assertEquals(1, pipeline.getTransformedAST().getErrors().size());
+
+		pipeline.parseString("X := 100000px * 100000;\np { width: 1px; }");
+		assertNull(pipeline.compile());
+		assertEquals(List.of("ERROR: The value of the expression is out of range."), pipeline.getErrors());
+		assertTrue(pipeline.getParsedAST().getErrors().isEmpty());
+	}
+
+	@Test
+	void testOverflowIsReported() {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString("p { width: 100000px * 100000; height: 10px; }");
+		assertTrue(pipeline.check());
+		pipeline.transform();
+		assertFalse(pipeline.isTransformed());
+		assertEquals(1, pipeline.getErrors().size());
+	}
+
+	@Test
+	void testCheckerReportsErrors() {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString("X := 10px;\np { color: X; font: 10px; width: 10px * 10px; }");
+		assertFalse(pipeline.check());
+		assertEquals(3, pipeline.getErrors().size());
+	}
+
+	@Test
+	void testTimeoutStopsTheParse() {
+		Pipeline pipeline = new Pipeline();
+		pipeline.setCancellation(CancellationToken.withTimeout(Duration.ZERO));
+		pipeline.parseString("p { width: 1px; }");
+		assertFalse(pipeline.isParsed());
+		assertTrue(pipeline.isCancelled());
+		assertTrue(pipeline.getErrors().get(0).startsWith("Timeout"));
+	}
+
+	@Test
+	void testParallelParseTakesTheSamePhases() {
+		String source = "li { width: 1px; }\n".repeat(15000);
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(source);
+		assertTrue(pipeline.isParsed());
+		assertEquals(15000, pipeline.getParsedAST().root.body.size());
+		assertEquals(List.of("lex", "parse", "build AST"), new ArrayList<>(pipeline.getPhaseTimings().keySet()));
+
+		pipeline.setCancellation(CancellationToken.withTimeout(Duration.ZERO));
+		pipeline.parseString(source);
+		assertFalse(pipeline.isParsed());
+		assertTrue(pipeline.isCancelled());
+		assertTrue(pipeline.getErrors().get(0).startsWith("Timeout"));
+	}
+
+	@Test
+	void testCancelledCheckStops() {
+		CancellationToken cancellation = new CancellationToken();
+		Pipeline pipeline = new Pipeline();
+		pipeline.setCancellation(cancellation);
+		pipeline.parseString("p { width: 1px; }");
+		cancellation.cancel();
+		assertFalse(pipeline.check());
+		assertTrue(pipeline.isCancelled());
+		assertEquals(List.of("Cancelled: the compile was cancelled"), pipeline.getErrors());
+	}
+
+	@Test
+	void testCompileReportsErrors() {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString("X := 10px;\np { color: X; font: 10px; width: 10px * 10px; }\na { width: 1px; }");
+		assertNull(pipeline.compile());
+		assertEquals(3, pipeline.getErrors().size());
+	}
+
+	@Test
+	void testTransformKeepsTheParsedAST() {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString("A := 2px;\np { width: A * 3; }\na { color: #ffffff; }");
+		String parsed = pipeline.getParsedAST().toString();
+		assertTrue(pipeline.check());
+		pipeline.transform();
+		AST transformed = pipeline.getTransformedAST();
+		assertEquals(parsed, pipeline.getParsedAST().toString());
+		assertNotSame(pipeline.getParsedAST().root.body.get(1), transformed.root.body.get(0));
+		// The style rule without anything to transform is shared
+		assertSame(pipeline.getParsedAST().root.body.get(2), transformed.root.body.get(1));
+		assertEquals(pipeline.generate(), pipeline.generate());
+	}
+
+	@Test
+	void testIncrementalCompileRecompilesChangedRules() throws IOException {
+		IncrementalCompiler compiler = new IncrementalCompiler();
+		String source = Sources.read("level3.icss");
+		assertEquals(Sources.compile(source), compiler.compile(source));
+		assertEquals(4, compiler.getRecompiledCount());
+
+		// Only the rules that use the changed variable are compiled again
+		String changed = source.replace("ParWidth := 500px;", "ParWidth := 400px;");
+		assertEquals(Sources.compile(changed), compiler.compile(changed));
+		assertEquals(2, compiler.getRecompiledCount());
+		assertEquals(2, compiler.getReusedCount());
+
+		assertNull(compiler.compile(changed + "\nb { width: Undefined; }"));
+		assertEquals(1, compiler.getErrors().size());
+		// The error points at its style rule
+		assertEquals(changed.length() + 1, compiler.getDiagnostics().get(0).start);
+	}
+
+	@Test
+	void testPipelinedCompileMatchesCompile() throws IOException {
+		StringBuilder source = new StringBuilder(Sources.read("level3.icss"));
+		for (int i = 0; i < 200; i++) {
+			source.append("\nli { width: ParWidth + ").append(i).append("px; }");
+		}
+		PipelinedCompiler compiler = new PipelinedCompiler();
+		assertEquals(Sources.compile(source.toString()), compiler.compile(source.toString()));
+
+		assertNull(compiler.compile(source + "\nb { color: ParWidth; width: 10px * 10px; }"));
+		assertEquals(2, compiler.getErrors().size());
+		assertNull(compiler.compile(source + "\nb { color: ; }"));
+		assertFalse(compiler.getErrors().isEmpty());
+	}
+
+	@Test
+	void testPhasesAreMeasured() throws IOException {
+		Pipeline pipeline = new Pipeline();
+		pipeline.setProfiling(true);
+		pipeline.parseString(Sources.read("level3.icss"));
+		assertNotNull(pipeline.compile());
+		assertEquals(Set.of("lex", "parse", "build AST", "check", "evaluate", "remove-if", "generate"),
+				pipeline.getPhaseTimings().keySet());
+		assertTrue(pipeline.getPhaseAllocations().get("parse") > 0);
+		assertEquals(pipeline.getPhaseTimings().keySet(), pipeline.getPhasePeakHeap().keySet());
+	}
+
+	@Test
+	void testCompileIsRecorded() throws IOException {
+		String source = Sources.read("level3.icss");
+		Path file = Files.createTempFile("icss", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(CompileEvent.class);
+			recording.enable(PhaseEvent.class);
+			recording.start();
+			Pipeline pipeline = new Pipeline();
+			pipeline.parseString(source);
+			assertNotNull(pipeline.compile());
+			recording.stop();
+			recording.dump(file);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			List<RecordedEvent> compiles = events.stream()
+					.filter(event -> event.getEventType().getName().equals("nl.han.ica.icss.Compile"))
+					.collect(Collectors.toList());
+			assertEquals(1, compiles.size());
+			assertEquals(source.length(), compiles.get(0).getLong("inputSize"));
+			assertEquals(pipeline.getParsedAST().countNodes(), compiles.get(0).getInt("nodeCount"));
+			assertEquals(Set.of("lex", "parse", "build AST", "check", "evaluate", "remove-if", "generate"),
+					events.stream()
+							.filter(event -> event.getEventType().getName().equals("nl.han.ica.icss.Phase"))
+							.map(event -> event.getString("phase"))
+							.collect(Collectors.toSet()));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
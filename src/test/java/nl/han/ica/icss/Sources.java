@@ -0,0 +1,27 @@
+package nl.han.ica.icss;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// The test sources and the CSS the phases of a Pipeline make of them, to compare other compilers with
+public class Sources {
+
+	public static String read(String resource) throws IOException {
+		try (InputStream inputStream = Sources.class.getClassLoader().getResourceAsStream(resource)) {
+			return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	public static String compile(String input) {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(input);
+		assertTrue(pipeline.isParsed(), pipeline.getErrors().toString());
+		assertTrue(pipeline.check(), pipeline.getErrors().toString());
+		pipeline.transform();
+		assertTrue(pipeline.isTransformed(), pipeline.getErrors().toString());
+		return pipeline.generate();
+	}
+}
@@ -0,0 +1,25 @@
+package nl.han.ica.icss.ast;
+
+import nl.han.ica.icss.Pipeline;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ASTFootprintTest {
+
+	@Test
+	void testFootprintCountsSharedNodesOnce() {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString("p { width: 2px + 3px; height: 2px + 3px; }\na { color: #ffffff; }");
+		ASTFootprint footprint = ASTFootprint.of(pipeline.getParsedAST());
+		assertEquals(2, footprint.getClasses().get("Stylerule").getInstances());
+		assertEquals(1, footprint.getClasses().get("AddOperation").getInstances());
+		assertEquals(2, footprint.getClasses().get("PixelLiteral").getInstances());
+		// The lists of the style rules and the strings of the selectors are retained as well
+		ASTFootprint.ClassFootprint stylerules = footprint.getClasses().get("Stylerule");
+		assertTrue(stylerules.getRetainedSize() > stylerules.getShallowSize());
+		assertTrue(footprint.getClasses().get("TagSelector").getRetainedSize()
+				> footprint.getClasses().get("TagSelector").getShallowSize());
+		assertEquals(footprint.getRetainedSize(), footprint.getClasses().values().stream()
+				.mapToLong(ASTFootprint.ClassFootprint::getRetainedSize).sum());
+	}
+}
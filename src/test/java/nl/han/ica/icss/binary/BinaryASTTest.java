@@ -0,0 +1,47 @@
+package nl.han.ica.icss.binary;
+
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.Sources;
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.Declaration;
+import nl.han.ica.icss.ast.Stylerule;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+
+class BinaryASTTest {
+
+	@Test
+	void testBinaryASTRoundTrip() throws IOException {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(Sources.read("level3.icss") + "\nb { width: 2px + 3px; height: 2px + 3px; color: 1px; }");
+		assertFalse(pipeline.check());
+		AST loaded = new BinaryASTReader().read(new BinaryASTWriter().write(pipeline.getCheckedAST()));
+		assertEquals(pipeline.getCheckedAST(), loaded);
+		assertEquals(pipeline.getCheckedAST().getErrors().toString(), loaded.getErrors().toString());
+		// Shared expressions stay shared
+		Stylerule b = (Stylerule) loaded.root.body.get(loaded.root.body.size() - 1);
+		assertSame(((Declaration) b.body.get(0)).expression, ((Declaration) b.body.get(1)).expression);
+
+		assertThrows(IOException.class, () -> new BinaryASTReader().read(new byte[] {1, 2, 3, 4, 5}));
+		// A corrupt string count in the header
+		assertThrows(IOException.class, () -> new BinaryASTReader().read(
+				new byte[] {'I', 'C', 'S', 'B', 1, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 7, 0}));
+	}
+
+	@Test
+	void testCorruptBinaryASTIsRejected() {
+		// The stylesheet as its own child
+		assertThrows(IOException.class, () -> new BinaryASTReader().read(
+				new byte[] {'I', 'C', 'S', 'B', 1, 0, 1, 1, 0, 0}));
+		// A style rule that refers to the stylesheet it is in
+		assertThrows(IOException.class, () -> new BinaryASTReader().read(
+				new byte[] {'I', 'C', 'S', 'B', 1, 0, 1, 1, 2, 1, 0, 0}));
+		// A reference to a node that doesn't exist, and a stylesheet whose children are missing
+		assertThrows(IOException.class, () -> new BinaryASTReader().read(
+				new byte[] {'I', 'C', 'S', 'B', 1, 0, 1, 1, 0, 5}));
+		assertThrows(IOException.class, () -> new BinaryASTReader().read(
+				new byte[] {'I', 'C', 'S', 'B', 1, 0, 1, 2, 2, 0}));
+	}
+}
@@ -0,0 +1,156 @@
+package nl.han.ica.icss.lsp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+class LanguageServerTest {
+
+	// The client end of a server that runs on its own thread
+	MessageConnection client;
+	OutputStream toServer;
+	CompletableFuture<Integer> exitCode;
+
+	void startServer() throws IOException {
+		PipedInputStream serverIn = new PipedInputStream(1 << 16);
+		toServer = new PipedOutputStream(serverIn);
+		PipedInputStream clientIn = new PipedInputStream(1 << 16);
+		PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+		client = new MessageConnection(clientIn, toServer);
+		LanguageServer server = new LanguageServer(serverIn, serverOut);
+		exitCode = CompletableFuture.supplyAsync(() -> {
+			try {
+				return server.run();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	JsonObject message(String json) {
+		return JsonParser.parseString(json).getAsJsonObject();
+	}
+
+	JsonObject nextDiagnostics(int version) throws IOException {
+		JsonObject notification = client.read();
+		assertEquals("textDocument/publishDiagnostics", notification.get("method").getAsString());
+		JsonObject params = notification.getAsJsonObject("params");
+		assertEquals(version, params.get("version").getAsInt());
+		return params;
+	}
+
+	@Test
+	void testDiagnosticsFollowChanges() {
+		assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+			startServer();
+			client.write(message("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"initialize\",\"params\":{}}"));
+			JsonObject initialized = client.read();
+			assertEquals(1, initialized.get("id").getAsInt());
+			assertEquals(2, initialized.getAsJsonObject("result").getAsJsonObject("capabilities")
+					.getAsJsonObject("textDocumentSync").get("change").getAsInt());
+
+			// The emoji takes two UTF-16 code units, positions count both
+			String text = "a { color: 😀; } b { width: Undefined; }";
+			JsonObject open = message("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":"
+					+ "{\"textDocument\":{\"uri\":\"file:///a.icss\",\"languageId\":\"icss\",\"version\":1}}}");
+			open.getAsJsonObject("params").getAsJsonObject("textDocument").addProperty("text", text);
+			client.write(open);
+			JsonArray diagnostics = nextDiagnostics(1).getAsJsonArray("diagnostics");
+			JsonObject undefined = null;
+			for (JsonElement diagnostic : diagnostics) {
+				if (!diagnostic.getAsJsonObject().get("message").getAsString().startsWith("Syntax error")) {
+					undefined = diagnostic.getAsJsonObject();
+				}
+			}
+			assertNotNull(undefined, diagnostics.toString());
+			JsonObject range = undefined.getAsJsonObject("range");
+			assertEquals(0, range.getAsJsonObject("start").get("line").getAsInt());
+			assertEquals(17, range.getAsJsonObject("start").get("character").getAsInt());
+			assertEquals(40, range.getAsJsonObject("end").get("character").getAsInt());
+
+			// Replaces Undefined, at UTF-16 characters 28 to 37
+			client.write(message("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":"
+					+ "{\"textDocument\":{\"uri\":\"file:///a.icss\",\"version\":2},\"contentChanges\":[{\"range\":"
+					+ "{\"start\":{\"line\":0,\"character\":28},\"end\":{\"line\":0,\"character\":37}},\"text\":\"2px\"}]}}"));
+			diagnostics = nextDiagnostics(2).getAsJsonArray("diagnostics");
+			assertTrue(diagnostics.size() > 0);
+			for (JsonElement diagnostic : diagnostics) {
+				assertTrue(diagnostic.getAsJsonObject().get("message").getAsString().startsWith("Syntax error"));
+				assertTrue(diagnostic.getAsJsonObject().getAsJsonObject("range").getAsJsonObject("end")
+						.get("character").getAsInt() <= 15);
+			}
+
+			client.write(message("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"shutdown\"}"));
+			assertEquals(2, client.read().get("id").getAsInt());
+			client.write(message("{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"));
+			assertEquals(0, exitCode.join());
+		});
+	}
+
+	@Test
+	void testChangesApplyAllOrNothing() {
+		assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+			startServer();
+			client.write(message("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":"
+					+ "{\"textDocument\":{\"uri\":\"file:///a.icss\",\"languageId\":\"icss\",\"version\":1,"
+					+ "\"text\":\"a { width: 1px; }\"}}}"));
+			assertEquals(0, nextDiagnostics(1).getAsJsonArray("diagnostics").size());
+
+			// The first change would make 1px an undefined variable, the second has no text
+			client.write(message("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":"
+					+ "{\"textDocument\":{\"uri\":\"file:///a.icss\",\"version\":2},\"contentChanges\":["
+					+ "{\"range\":{\"start\":{\"line\":0,\"character\":11},\"end\":{\"line\":0,\"character\":14}},"
+					+ "\"text\":\"Undefined\"},"
+					+ "{\"range\":{\"start\":{\"line\":0,\"character\":0},\"end\":{\"line\":0,\"character\":0}}}]}}"));
+
+			// Positions before the text are moved to its start, so this inserts nothing at the start
+			client.write(message("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":"
+					+ "{\"textDocument\":{\"uri\":\"file:///a.icss\",\"version\":3},\"contentChanges\":["
+					+ "{\"range\":{\"start\":{\"line\":-1,\"character\":-5},\"end\":{\"line\":0,\"character\":-1}},"
+					+ "\"text\":\"\"}]}}"));
+			assertEquals(0, nextDiagnostics(3).getAsJsonArray("diagnostics").size());
+
+			client.write(message("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"shutdown\"}"));
+			assertEquals(1, client.read().get("id").getAsInt());
+			client.write(message("{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"));
+			assertEquals(0, exitCode.join());
+		});
+	}
+
+	@Test
+	void testBadMessagesDontStopTheServer() {
+		assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+			startServer();
+			toServer.write("Content-Length: 5\r\n\r\n{bad}".getBytes(StandardCharsets.US_ASCII));
+			JsonObject parseError = client.read();
+			assertTrue(parseError.get("id").isJsonNull());
+			assertEquals(-32700, parseError.getAsJsonObject("error").get("code").getAsInt());
+
+			toServer.write("Content-Length: five\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			assertEquals(-32700, client.read().getAsJsonObject("error").get("code").getAsInt());
+
+			// A request without its params gets an error, a notification without them is skipped
+			client.write(message("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"textDocument/didOpen\"}"));
+			JsonObject invalidParams = client.read();
+			assertEquals(1, invalidParams.get("id").getAsInt());
+			assertEquals(-32602, invalidParams.getAsJsonObject("error").get("code").getAsInt());
+			client.write(message("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{}}"));
+
+			client.write(message("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"initialize\",\"params\":{}}"));
+			assertEquals(2, client.read().get("id").getAsInt());
+			toServer.close();
+			assertEquals(1, exitCode.join());
+		});
+	}
+}
@@ -3,6 +3,7 @@ package nl.han.ica.icss.parser;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import nl.han.ica.icss.CancellationToken;
 import nl.han.ica.icss.ast.*;
 
 import org.antlr.v4.runtime.*;
@@ -10,6 +11,9 @@ import org.antlr.v4.runtime.misc.*;
 import org.antlr.v4.runtime.tree.*;
 
 import java.io.*;
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class ParserTest {
 
@@ -81,4 +85,35 @@ class ParserTest {
 		AST exp = Fixtures.uncheckedLevel3();
 		assertEquals(exp,sut);
 	}
+	@Test
+	void testParallelParseMatchesParse() throws IOException {
+		String level3 = new String(this.getClass().getClassLoader().getResourceAsStream("level3.icss").readAllBytes());
+		StringBuilder source = new StringBuilder(level3);
+		String rules = level3.substring(level3.indexOf("p {"));
+		for (int i = 0; i < 100; i++) {
+			source.append('\n').append(rules);
+		}
+
+		ICSSParser parser = new ICSSParser(new CommonTokenStream(new ICSSLexer(CharStreams.fromString(source.toString()))));
+		ASTListener listener = new ASTListener();
+		new ParseTreeWalker().walk(listener, parser.stylesheet());
+
+		AST parallel = new ParallelParser(ForkJoinPool.commonPool(), 4).parse(source.toString());
+		assertNotNull(parallel);
+		assertEquals(listener.getAST(), parallel);
+		assertNull(new ParallelParser(ForkJoinPool.commonPool(), 4).parse(source + "p { width: ; }"));
+
+		// Cancelled once lexing is done, the chunks stop while they are parsed
+		AtomicInteger checks = new AtomicInteger();
+		ParallelParser cancelled = new ParallelParser(ForkJoinPool.commonPool(), 4);
+		cancelled.setCancellation(() -> checks.incrementAndGet() > 2);
+		ParallelParser.Parse parse = cancelled.lex(source.toString());
+		assertThrows(ParseCancellationException.class, parse::parse);
+	}
+	@Test
+	void testCancelledParseStops() {
+		ICSSParser parser = new ICSSParser(new CommonTokenStream(new ICSSLexer(CharStreams.fromString("p { width: 1px; }"))));
+		parser.setErrorHandler(new CancellableErrorStrategy(CancellationToken.withTimeout(Duration.ZERO)));
+		assertThrows(ParseCancellationException.class, parser::stylesheet);
+	}
 }
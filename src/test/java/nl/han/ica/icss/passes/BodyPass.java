@@ -0,0 +1,39 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.ast.Stylerule;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+// A fusable pass that changes the bodies of the style rules with a function
+class BodyPass implements Pass {
+
+	private final String name;
+	private final UnaryOperator<Stylerule> apply;
+
+	BodyPass(String name, UnaryOperator<Stylerule> apply) {
+		this.name = name;
+		this.apply = apply;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Set<Facet> reads() {
+		return EnumSet.of(Facet.BODIES);
+	}
+
+	@Override
+	public Set<Facet> writes() {
+		return EnumSet.of(Facet.BODIES);
+	}
+
+	@Override
+	public Stylerule apply(Stylerule stylerule) {
+		return apply.apply(stylerule);
+	}
+}
@@ -0,0 +1,70 @@
+package nl.han.ica.icss.passes;
+
+import nl.han.ica.icss.CancellationToken;
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.Declaration;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+
+class PassManagerTest {
+
+	@Test
+	void testCustomPassRunsBeforeGenerate() {
+		Pipeline pipeline = new Pipeline();
+		// Keeps only the last declaration of every property
+		pipeline.addPass(new BodyPass("last-declaration-wins", stylerule -> {
+			ArrayList<ASTNode> body = new ArrayList<>();
+			HashSet<String> seen = new HashSet<>();
+			for (int i = stylerule.body.size() - 1; i >= 0; i--) {
+				if (seen.add(((Declaration) stylerule.body.get(i)).property.name)) {
+					body.add(0, stylerule.body.get(i));
+				}
+			}
+			return stylerule.withBody(body);
+		}));
+		pipeline.parseString("p { width: 10px; if[TRUE] { width: 20px; } height: 5px; }");
+		assertEquals("p {\n  width: 20px;\n  height: 5px;\n}\n\n", pipeline.compile());
+		assertTrue(pipeline.getTimingReport().contains("last-declaration-wins"));
+	}
+
+	@Test
+	void testCancelledCompileKeepsFinishedRules() {
+		CancellationToken cancellation = new CancellationToken();
+		Pipeline pipeline = new Pipeline();
+		pipeline.setCancellation(cancellation);
+		// Cancels while the second style rule is compiled
+		int[] count = new int[1];
+		pipeline.addPass(new BodyPass("cancel", stylerule -> {
+			if (++count[0] == 2) {
+				cancellation.cancel();
+			}
+			return stylerule;
+		}));
+		pipeline.parseString("p { width: 1px; }\na { width: 2px; }\nb { width: 3px; }");
+		assertNull(pipeline.compile());
+		assertTrue(pipeline.isCancelled());
+		assertEquals(List.of("Cancelled: the compile was cancelled"), pipeline.getErrors());
+		assertEquals("p {\n  width: 1px;\n}\n\na {\n  width: 2px;\n}\n\n", pipeline.getPartialOutput());
+	}
+
+	@Test
+	void testCancelledCompileDoesntReachAGroupOfItsOwn() {
+		// A pass that can't be fused puts generating in a group of its own, which a cancelled run doesn't reach
+		CancellationToken cancellation = new CancellationToken();
+		Pipeline pipeline = new Pipeline();
+		pipeline.setCancellation(cancellation);
+		pipeline.addPass(new TransformPass("whole", ast -> ast, EnumSet.of(Facet.BODIES), EnumSet.of(Facet.BODIES)));
+		pipeline.parseString("old { width: 1px; }");
+		assertNotNull(pipeline.compile());
+		pipeline.parseString("new { width: 2px; }");
+		cancellation.cancel();
+		assertNull(pipeline.compile());
+		assertEquals("", pipeline.getPartialOutput());
+	}
+}
@@ -0,0 +1,26 @@
+package nl.han.ica.icss.symbols;
+
+import nl.han.ica.icss.Pipeline;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreludeTest {
+
+	@Test
+	void testPreludeIsSharedByCompiles() {
+		Prelude prelude = Pipeline.compilePrelude("Gap := 4px;\nWide := Gap * 10;\nAccent := #102030;");
+		Pipeline pipeline = new Pipeline(prelude);
+		pipeline.parseString("p { width: Wide; color: Accent; }");
+		assertEquals("p {\n  width: 40px;\n  color: #102030;\n}\n\n", pipeline.compile());
+
+		// A stylesheet can redefine a variable of the prelude
+		pipeline = new Pipeline(prelude);
+		pipeline.parseString("Gap := 1px;\np { width: Gap; }");
+		assertEquals("p {\n  width: 1px;\n}\n\n", pipeline.compile());
+
+		pipeline = new Pipeline(prelude);
+		pipeline.parseString("p { width: Accent; }");
+		assertFalse(pipeline.check());
+		assertThrows(IllegalArgumentException.class, () -> Pipeline.compilePrelude("X := 1px + #ffffff;"));
+	}
+}
@@ -0,0 +1,108 @@
+package nl.han.ica.icss.worker;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+
+class WorkerTest {
+
+	@TempDir
+	Path directory;
+
+	Path write(String name, String content) throws IOException {
+		return Files.writeString(directory.resolve(name), content);
+	}
+
+	String request(int requestId, String... arguments) {
+		StringBuilder request = new StringBuilder("{\"requestId\":").append(requestId).append(",\"arguments\":[");
+		for (int i = 0; i < arguments.length; i++) {
+			request.append(i > 0 ? "," : "").append('"').append(arguments[i].replace("\\", "\\\\")).append('"');
+		}
+		return request.append("]}").toString();
+	}
+
+	// The responses by request id, the last one for an id wins
+	HashMap<Integer, JsonObject> serve(Worker worker, String... requests) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		worker.serve(new ByteArrayInputStream(String.join("\n", requests).getBytes(StandardCharsets.UTF_8)), out, 4);
+		HashMap<Integer, JsonObject> responses = new HashMap<>();
+		for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+			JsonObject response = JsonParser.parseString(line).getAsJsonObject();
+			responses.put(response.get("requestId").getAsInt(), response);
+		}
+		return responses;
+	}
+
+	@Test
+	void testCompileOnce() throws IOException {
+		Path input = write("a.icss", "p { width: 2px * 3; }");
+		Path output = directory.resolve("a.css");
+		StringBuilder errors = new StringBuilder();
+		assertEquals(0, new Worker().compile(List.of("--input", input.toString(), "--output", output.toString()), errors));
+		assertEquals("p {\n  width: 6px;\n}\n\n", Files.readString(output));
+
+		Path invalid = write("b.icss", "p { color: 1px; }");
+		assertEquals(1, new Worker().compile(List.of("--input", invalid.toString(), "--output", output.toString()), errors));
+		assertTrue(errors.toString().contains("b.icss"));
+		assertEquals(2, new Worker().compile(List.of("--input", input.toString()), new StringBuilder()));
+	}
+
+	@Test
+	void testServeAnswersEveryRequest() throws IOException {
+		Path a = write("a.icss", "p { width: 1px; }");
+		Path b = write("b.icss", "p { color: 1px; }");
+		HashMap<Integer, JsonObject> responses = serve(new Worker(),
+				request(1, "--input", a.toString(), "--output", directory.resolve("a.css").toString()),
+				request(2, "--input", b.toString(), "--output", directory.resolve("b.css").toString()),
+				"not json",
+				"{\"requestId\":\"abc\",\"arguments\":[]}",
+				"{\"requestId\":3,\"arguments\":\"--input\"}",
+				request(4, "--input", a.toString(), "--output", directory.resolve("c.css").toString()));
+
+		assertEquals(0, responses.get(1).get("exitCode").getAsInt());
+		assertEquals("p {\n  width: 1px;\n}\n\n", Files.readString(directory.resolve("a.css")));
+		assertEquals(1, responses.get(2).get("exitCode").getAsInt());
+		// The malformed requests get an error, the ones after them are still handled
+		assertEquals(1, responses.get(0).get("exitCode").getAsInt());
+		assertEquals(1, responses.get(3).get("exitCode").getAsInt());
+		assertTrue(responses.get(3).get("output").getAsString().startsWith("Invalid work request"));
+		assertEquals(0, responses.get(4).get("exitCode").getAsInt());
+		assertTrue(Files.exists(directory.resolve("c.css")));
+	}
+
+	@Test
+	void testPreludeIsReusedUntilItChanges() throws IOException {
+		Path prelude = write("prelude.icss", "Gap := 4px;");
+		Path input = write("a.icss", "p { width: Gap; }");
+		Path output = directory.resolve("a.css");
+		List<String> arguments = List.of("--prelude", prelude.toString(), "--input", input.toString(),
+				"--output", output.toString());
+		Worker worker = new Worker();
+		assertEquals(0, worker.compile(arguments, new StringBuilder()));
+		assertEquals("p {\n  width: 4px;\n}\n\n", Files.readString(output));
+
+		// The same size and time, so the worker takes the prelude it compiled before
+		FileTime modified = Files.getLastModifiedTime(prelude);
+		Files.writeString(prelude, "Gap := 8px;");
+		Files.setLastModifiedTime(prelude, modified);
+		Files.delete(output);
+		assertEquals(0, worker.compile(arguments, new StringBuilder()));
+		assertEquals("p {\n  width: 4px;\n}\n\n", Files.readString(output));
+
+		Files.setLastModifiedTime(prelude, FileTime.fromMillis(modified.toMillis() + 1000));
+		assertEquals(0, worker.compile(arguments, new StringBuilder()));
+		assertEquals("p {\n  width: 8px;\n}\n\n", Files.readString(output));
+	}
+}